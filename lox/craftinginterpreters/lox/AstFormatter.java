@@ -0,0 +1,231 @@
+package craftinginterpreters.lox;
+
+// `jlox --format <script>`: prints the program back as canonically laid
+// out Lox. parentheses come only from Grouping nodes, so the output parses
+// back to the same tree. for loops come out as the block / while the
+// parser desugars them into, and fused nodes as the code they replaced.
+class AstFormatter extends AstWriter {
+  AstFormatter(Appendable out) {
+    super(out);
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    text("{");
+    indent();
+    for (Stmt statement : stmt.statements) {
+      newline();
+      write(statement);
+    }
+    dedent();
+    newline();
+    text("}");
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    write(stmt.expression);
+    text(";");
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    text("if (");
+    write(stmt.condition);
+    text(")");
+    body(stmt.thenBranch);
+    if (stmt.elseBranch != null) {
+      // `} else`, or on its own line after a single statement
+      if (stmt.thenBranch instanceof Stmt.Block) {
+        text(" ");
+      } else {
+        newline();
+      }
+      text("else");
+      if (stmt.elseBranch instanceof Stmt.If) {
+        text(" ");
+        write(stmt.elseBranch);
+      } else {
+        body(stmt.elseBranch);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    text("print ");
+    write(stmt.expression);
+    text(";");
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    text("var ").text(stmt.name.lexeme);
+    if (stmt.initializer != null) {
+      text(" = ");
+      write(stmt.initializer);
+    }
+    text(";");
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    text("while (");
+    write(stmt.condition);
+    text(")");
+    body(stmt.body);
+    return null;
+  }
+
+  // blocks open on the same line, single statements go on the next one
+  private void body(Stmt body) {
+    if (body instanceof Stmt.Block) {
+      text(" ");
+      write(body);
+      return;
+    }
+    indent();
+    newline();
+    write(body);
+    dedent();
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    text(expr.name.lexeme).text(" = ");
+    write(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    write(expr.left);
+    text(" ").text(expr.operator.lexeme).text(" ");
+    write(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    write(expr.callee);
+    text("(");
+    for (int i = 0; i < expr.arguments.size(); i++) {
+      if (i > 0) text(", ");
+      write(expr.arguments.get(i));
+    }
+    text(")");
+    return null;
+  }
+
+  @Override
+  public Void visitCompareExpr(Expr.Compare expr) {
+    text(expr.left.lexeme).text(" ").text(expr.operator.lexeme).text(" ");
+    if (expr.rightName != null) {
+      text(expr.rightName.lexeme);
+    } else {
+      literal(expr.rightValue);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    text("(");
+    write(expr.expression);
+    text(")");
+    return null;
+  }
+
+  // the code it was hoisted from
+  @Override
+  public Void visitHoistedExpr(Expr.Hoisted expr) {
+    write(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitIndexExpr(Expr.Index expr) {
+    write(expr.object);
+    text("[");
+    write(expr.index);
+    text("]");
+    return null;
+  }
+
+  @Override
+  public Void visitIndexSetExpr(Expr.IndexSet expr) {
+    write(expr.object);
+    text("[");
+    write(expr.index);
+    text("] = ");
+    write(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitIndexUpdateExpr(Expr.IndexUpdate expr) {
+    write(expr.object);
+    text("[");
+    write(expr.index);
+    text("] = ");
+    write(expr.object);
+    text("[");
+    write(expr.index);
+    text("] ").text(expr.operator.lexeme).text(" ");
+    write(expr.operand);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    literal(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    write(expr.left);
+    text(" ").text(expr.operator.lexeme).text(" ");
+    write(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    text(expr.operator.lexeme);
+    write(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitUpdateExpr(Expr.Update expr) {
+    text(expr.name.lexeme).text(" = ").text(expr.read.lexeme).text(" ")
+            .text(expr.operator.lexeme).text(" ");
+    literal(expr.operand);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    text(expr.name.lexeme);
+    return null;
+  }
+
+  private void literal(Object value) {
+    if (value == null) {
+      text("nil");
+    } else if (value instanceof Double) {
+      text(number((double) value));
+    } else if (value instanceof CharSequence) {
+      // Lox strings have no escapes, any character but '"' is literal
+      text('"').text((CharSequence) value).text('"');
+    } else {
+      text(value.toString());
+    }
+  }
+}
@@ -1,60 +1,191 @@
 package craftinginterpreters.lox;
 
-class AstPrinter implements Expr.Visitor<String> {
-  String print(Expr expr) throws RuntimeError {
-    return expr.accept(this);
+// dumps the AST as nested s-expressions, one statement per line
+class AstPrinter extends AstWriter {
+  AstPrinter(Appendable out) {
+    super(out);
+  }
+
+  // for small trees, when a String is more convenient
+  static String print(Expr expr) {
+    StringBuilder builder = new StringBuilder();
+    new AstPrinter(builder).write(expr);
+    return builder.toString();
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    text("(block");
+    indent();
+    for (Stmt statement : stmt.statements) {
+      newline();
+      write(statement);
+    }
+    dedent();
+    text(")");
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    return parenthesize(";", stmt.expression);
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    text("(if ");
+    write(stmt.condition);
+    indent();
+    newline();
+    write(stmt.thenBranch);
+    if (stmt.elseBranch != null) {
+      newline();
+      write(stmt.elseBranch);
+    }
+    dedent();
+    text(")");
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    return parenthesize("print", stmt.expression);
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer == null) {
+      text("(var ").text(stmt.name.lexeme).text(")");
+      return null;
+    }
+    return parenthesize("var " + stmt.name.lexeme, stmt.initializer);
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    text("(while ");
+    write(stmt.condition);
+    indent();
+    newline();
+    write(stmt.body);
+    dedent();
+    text(")");
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    return parenthesize("= " + expr.name.lexeme, expr.value);
   }
 
   @Override
-  public String visitAssignExpr(Expr.Assign expr) throws RuntimeError {
-    return "";
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    return parenthesize(expr.operator.lexeme, expr.left, expr.right);
   }
 
   @Override
-  public String visitBinaryExpr(Expr.Binary expr) throws RuntimeError {
-    return parenthesize(expr.operator.lexeme,
-            expr.left, expr.right);
+  public Void visitCallExpr(Expr.Call expr) {
+    text("(call ");
+    write(expr.callee);
+    for (Expr argument : expr.arguments) {
+      text(" ");
+      write(argument);
+    }
+    text(")");
+    return null;
+  }
+
+  @Override
+  public Void visitCompareExpr(Expr.Compare expr) {
+    text("(").text(expr.operator.lexeme).text(" ").text(expr.left.lexeme)
+            .text(" ");
+    if (expr.rightName != null) {
+      text(expr.rightName.lexeme);
+    } else {
+      literal(expr.rightValue);
+    }
+    text(")");
+    return null;
   }
 
   @Override
-  public String visitGroupingExpr(Expr.Grouping expr) throws RuntimeError {
+  public Void visitGroupingExpr(Expr.Grouping expr) {
     return parenthesize("group", expr.expression);
   }
 
   @Override
-  public String visitLiteralExpr(Expr.Literal expr) {
-    if (expr.value == null) return "nil";
-    return expr.value.toString();
+  public Void visitHoistedExpr(Expr.Hoisted expr) {
+    return parenthesize("hoisted", expr.expression);
+  }
+
+  @Override
+  public Void visitIndexExpr(Expr.Index expr) {
+    return parenthesize("[]", expr.object, expr.index);
+  }
+
+  @Override
+  public Void visitIndexSetExpr(Expr.IndexSet expr) {
+    return parenthesize("[]=", expr.object, expr.index, expr.value);
   }
 
   @Override
-  public String visitLogicalExpr(Expr.Logical expr) throws RuntimeError {
-    return "";
+  public Void visitIndexUpdateExpr(Expr.IndexUpdate expr) {
+    return parenthesize("[]" + expr.operator.lexeme + "=", expr.object,
+            expr.index, expr.operand);
   }
 
   @Override
-  public String visitUnaryExpr(Expr.Unary expr) throws RuntimeError {
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    literal(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    return parenthesize(expr.operator.lexeme, expr.left, expr.right);
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
     return parenthesize(expr.operator.lexeme, expr.right);
   }
 
   @Override
-  public String visitVariableExpr(Expr.Variable expr) {
-    return "";
+  public Void visitUpdateExpr(Expr.Update expr) {
+    text("(= ").text(expr.name.lexeme).text(" (").text(expr.operator.lexeme)
+            .text(" ").text(expr.read.lexeme).text(" ");
+    literal(expr.operand);
+    text("))");
+    return null;
   }
 
-  private String parenthesize(String name, Expr... exprs) throws RuntimeError {
-    StringBuilder builder = new StringBuilder();
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    text(expr.name.lexeme);
+    return null;
+  }
+
+  private void literal(Object value) {
+    if (value == null) {
+      text("nil");
+    } else if (value instanceof Double) {
+      text(number((double) value));
+    } else {
+      text(value.toString());
+    }
+  }
 
-    builder.append("(").append(name);
+  private Void parenthesize(CharSequence name, Expr... exprs) {
+    text("(").text(name);
     for (Expr expr : exprs) {
-      builder.append(" ");
-      builder.append(expr.accept(this));
+      text(" ");
+      write(expr);
     }
-    builder.append(")");
-    return builder.toString();
+    text(")");
+    return null;
   }
 
-  public static void main(String[] args) throws RuntimeError {
+  public static void main(String[] args) {
     Expr expression = new Expr.Binary(
             new Expr.Unary(
                     new Token(TokenType.MINUS, "-", null, 1),
@@ -62,6 +193,6 @@ class AstPrinter implements Expr.Visitor<String> {
             new Token(TokenType.STAR, "*", null, 1),
             new Expr.Grouping(
                     new Expr.Literal(45.67)));
-    System.out.println(new AstPrinter().print(expression));
+    System.out.println(print(expression));
   }
 }
@@ -0,0 +1,153 @@
+package craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// copies an AST bottom-up. subclasses override the visit methods for the
+// nodes they want to replace; everything else is rebuilt around the
+// rewritten children. the input tree is never modified, so it stays safe
+// to share with anything already running it.
+abstract class AstRewriter implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+  List<Stmt> rewrite(List<Stmt> statements) {
+    List<Stmt> result = new ArrayList<>(statements.size());
+    for (Stmt statement : statements) {
+      result.add(rewrite(statement));
+    }
+    return result;
+  }
+
+  Stmt rewrite(Stmt stmt) {
+    if (stmt == null) return null;
+    try {
+      Stmt result = stmt.accept(this);
+      result.line = stmt.line;
+      result.slot = stmt.slot;
+      return result;
+    } catch (RuntimeError error) {
+      // accept() is declared to throw for the interpreter's sake, rewriting
+      // never evaluates anything
+      throw new AssertionError(error);
+    }
+  }
+
+  Expr rewrite(Expr expr) {
+    if (expr == null) return null;
+    try {
+      Expr result = expr.accept(this);
+      result.site = expr.site;
+      return result;
+    } catch (RuntimeError error) {
+      throw new AssertionError(error);
+    }
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    return new Stmt.Block(rewrite(stmt.statements));
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    return new Stmt.Expression(rewrite(stmt.expression));
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    return new Stmt.If(rewrite(stmt.condition), rewrite(stmt.thenBranch),
+            rewrite(stmt.elseBranch));
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    return new Stmt.Print(rewrite(stmt.expression));
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    return new Stmt.Var(stmt.name, rewrite(stmt.initializer));
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    return new Stmt.While(rewrite(stmt.condition), rewrite(stmt.body));
+  }
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    return new Expr.Assign(expr.name, rewrite(expr.value));
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    return new Expr.Binary(rewrite(expr.left), expr.operator,
+            rewrite(expr.right));
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+    for (Expr argument : expr.arguments) {
+      arguments.add(rewrite(argument));
+    }
+    return new Expr.Call(rewrite(expr.callee), expr.paren, arguments);
+  }
+
+  @Override
+  public Expr visitCompareExpr(Expr.Compare expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    return new Expr.Grouping(rewrite(expr.expression));
+  }
+
+  @Override
+  public Expr visitHoistedExpr(Expr.Hoisted expr) {
+    return new Expr.Hoisted(rewrite(expr.expression), expr.index, expr.loop);
+  }
+
+  @Override
+  public Expr visitIndexExpr(Expr.Index expr) {
+    return new Expr.Index(rewrite(expr.object), expr.bracket,
+            rewrite(expr.index));
+  }
+
+  @Override
+  public Expr visitIndexSetExpr(Expr.IndexSet expr) {
+    return new Expr.IndexSet(rewrite(expr.object), expr.bracket,
+            rewrite(expr.index), rewrite(expr.value));
+  }
+
+  @Override
+  public Expr visitIndexUpdateExpr(Expr.IndexUpdate expr) {
+    return new Expr.IndexUpdate(rewrite(expr.object), expr.bracket,
+            rewrite(expr.index), expr.operator, rewrite(expr.operand));
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    return new Expr.Logical(rewrite(expr.left), expr.operator,
+            rewrite(expr.right));
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    return new Expr.Unary(expr.operator, rewrite(expr.right));
+  }
+
+  @Override
+  public Expr visitUpdateExpr(Expr.Update expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    return expr;
+  }
+}
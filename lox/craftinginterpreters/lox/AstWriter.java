@@ -0,0 +1,83 @@
+package craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.List;
+
+// the streaming core shared by AstPrinter and AstFormatter. everything is
+// appended straight to the output as the tree is walked, nothing is built
+// up in strings, so dumping a multi-megabyte script takes memory
+// proportional to its nesting depth, not its size.
+abstract class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private final Appendable out;
+  private int indent = 0;
+
+  AstWriter(Appendable out) {
+    this.out = out;
+  }
+
+  // one top-level statement per line
+  void write(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      write(statement);
+      newline();
+    }
+  }
+
+  void write(Stmt stmt) {
+    try {
+      stmt.accept(this);
+    } catch (RuntimeError error) {
+      // accept() is declared to throw for the interpreter's sake
+      throw new AssertionError(error);
+    }
+  }
+
+  void write(Expr expr) {
+    try {
+      expr.accept(this);
+    } catch (RuntimeError error) {
+      throw new AssertionError(error);
+    }
+  }
+
+  // Appendable throws IOException, the visitor interfaces can't
+  AstWriter text(CharSequence text) {
+    try {
+      out.append(text);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return this;
+  }
+
+  AstWriter text(char c) {
+    try {
+      out.append(c);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return this;
+  }
+
+  void newline() {
+    text('\n');
+    for (int i = 0; i < indent; i++) text("  ");
+  }
+
+  void indent() {
+    indent++;
+  }
+
+  void dedent() {
+    indent--;
+  }
+
+  // numbers the way a Lox source would spell them: no exponent, no ".0"
+  static String number(double value) {
+    String text = BigDecimal.valueOf(value).toPlainString();
+    if (text.endsWith(".0")) text = text.substring(0, text.length() - 2);
+    return text;
+  }
+}
@@ -0,0 +1,1211 @@
+package craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+// quick and dirty microbenchmarks, no JMH, just warm up and time a loop
+// `java craftinginterpreters.lox.Benchmark <name> [size]`
+class Benchmark {
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: benchmark <name> [size]");
+      System.err.println("  errors   lex + parse a script with <size> syntax errors");
+      System.err.println("  budget   <size> loop iterations with and without limits");
+      System.err.println("  pool     requests/s, fresh pipeline vs shared program");
+      System.err.println("  fused    <size> iteration for loops, plain vs fused nodes");
+      System.err.println("  profile  <size> loop iterations with and without --profile");
+      System.err.println("  coverage <size> loop iterations, plain vs coverage vs trace");
+      System.err.println("  scaling  every corpus shape, doubling up to <size>");
+      System.err.println("  parse    <size> statements, sequential vs parallel parsing");
+      System.err.println("  lex      differential check, then sequential vs parallel lexing");
+      System.err.println("  natives  <size> native calls, and string building by builder");
+      System.err.println("  feedback <size> loop iterations, plain vs profiling vs preloaded");
+      System.err.println("  licm     <size> loop iterations, with and without hoisting");
+      System.err.println("  ir       differential check, then <size> loop iterations, tree-walker vs optimized graph");
+      System.err.println("  tiers    one loop of <size> iterations, with and without tier-up");
+      System.err.println("  pipeline differential check, then <size> statements, parse-then-run vs pipelined");
+      System.err.println("  snapshot <size> globals, running a prelude vs restoring it");
+      System.err.println("  shared   <size> requests, copied vs shared globals, 1 to all cores");
+      System.err.println("  incremental differential check, then keystrokes in a <size> line script, full vs incremental");
+      System.err.println("  arrays   <size> element reads and writes, bytes allocated per access");
+      System.err.println("  literals a <size> MB string literal, sliced vs copied out of the source");
+      System.exit(64);
+    }
+    int size = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+
+    switch (args[0]) {
+      case "errors":
+        errors(size > 0 ? size : 10_000);
+        break;
+      case "budget":
+        budget(size > 0 ? size : 1_000_000);
+        break;
+      case "pool":
+        pool(size > 0 ? size : 20_000);
+        break;
+      case "fused":
+        fused(size > 0 ? size : 1_000_000);
+        break;
+      case "profile":
+        profile(size > 0 ? size : 1_000_000);
+        break;
+      case "coverage":
+        coverage(size > 0 ? size : 1_000_000);
+        break;
+      case "scaling":
+        scaling(size > 0 ? size : 32_768);
+        break;
+      case "parse":
+        parallelParse(size > 0 ? size : 200_000);
+        break;
+      case "lex":
+        parallelLex(size > 0 ? size : 200_000);
+        break;
+      case "natives":
+        natives(size > 0 ? size : 1_000_000);
+        break;
+      case "feedback":
+        feedback(size > 0 ? size : 1_000_000);
+        break;
+      case "licm":
+        licm(size > 0 ? size : 1_000_000);
+        break;
+      case "ir":
+        ir(size > 0 ? size : 1_000_000);
+        break;
+      case "tiers":
+        tiers(size > 0 ? size : 1_000_000);
+        break;
+      case "pipeline":
+        pipeline(size > 0 ? size : 200_000);
+        break;
+      case "snapshot":
+        snapshot(size > 0 ? size : 100_000);
+        break;
+      case "shared":
+        shared(size > 0 ? size : 20_000);
+        break;
+      case "incremental":
+        incremental(size > 0 ? size : 50_000);
+        break;
+      case "arrays":
+        arrays(size > 0 ? size : 1_000_000);
+        break;
+      case "literals":
+        literals(size > 0 ? size : 16);
+        break;
+      default:
+        System.err.println("Unknown benchmark '" + args[0] + "'.");
+        System.exit(64);
+    }
+  }
+
+  // runs `task` a few times to warm up, then reports the mean of `runs` runs
+  static double time(String label, int runs, Runnable task) {
+    for (int i = 0; i < 5; i++) task.run();
+
+    long start = System.nanoTime();
+    for (int i = 0; i < runs; i++) task.run();
+    double ms = (System.nanoTime() - start) / 1e6 / runs;
+
+    System.out.printf("%-40s %10.3f ms%n", label, ms);
+    return ms;
+  }
+
+  // sink for `print` so benchmarks measure the interpreter, not the terminal
+  static final PrintStream NULL_OUT =
+          new PrintStream(OutputStream.nullOutputStream());
+
+  static List<Stmt> parse(String source) {
+    List<Diagnostic> diagnostics = new ArrayList<>();
+    List<Token> tokens = new Lexer(source, diagnostics).lexTokens();
+    List<Stmt> statements = new Parser(tokens, diagnostics).parse();
+    if (!diagnostics.isEmpty()) {
+      throw new IllegalStateException(diagnostics.get(0).toString());
+    }
+    return statements;
+  }
+
+  static void interpret(List<Stmt> statements, Budget budget) {
+    new Interpreter(NULL_OUT, budget).interpret(statements);
+  }
+
+  // every line is broken in a different way so all the recovery paths run
+  private static void errors(int count) {
+    String[] broken = {
+            "print ;",
+            "var = 1;",
+            "1 + ;",
+            "if (true print 1;",
+            "var x = 1 print x;",
+            "{ print ( ; }",
+            "1 = 2;",
+    };
+    StringBuilder source = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      source.append(broken[i % broken.length]).append('\n');
+    }
+    String script = source.toString();
+
+    List<Diagnostic> diagnostics = new ArrayList<>();
+    double ms = time("lex + parse, " + count + " errors", 20, () -> {
+      diagnostics.clear();
+      List<Token> tokens = new Lexer(script, diagnostics).lexTokens();
+      new Parser(tokens, diagnostics).parse();
+    });
+    System.out.printf("%d diagnostics, %.0f errors/ms%n",
+            diagnostics.size(), diagnostics.size() / ms);
+  }
+
+  // the overhead of counting instructions, checking the clock and charging
+  // memory, against the same loop with no limits at all
+  private static void budget(int iterations) {
+    List<Stmt> program = parse(
+            "var s = \"\";\n" +
+            "for (var i = 0; i < " + iterations + "; i = i + 1) {\n" +
+            "  var x = i * 2;\n" +
+            "  if (x > 10) s = \"a\" + \"b\";\n" +
+            "}\n");
+    Budget limited = new Budget(Long.MAX_VALUE / 2, 3_600_000,
+            Long.MAX_VALUE / 2);
+
+    double plain = time("loop, unlimited", 10,
+            () -> interpret(program, Budget.UNLIMITED));
+    double counted = time("loop, all limits on", 10,
+            () -> interpret(program, limited));
+    System.out.printf("overhead %.1f%%%n", (counted / plain - 1) * 100);
+  }
+
+  // the same small script run `requests` times from every core, once going
+  // through lex + parse + a new Interpreter per request, once through a
+  // ContextPool sharing one compiled Program
+  private static void pool(int requests) throws Exception {
+    StringBuilder source = new StringBuilder();
+    for (int i = 0; i < 50; i++) {
+      source.append("var config").append(i).append(" = input * ")
+              .append(i).append(";\n");
+    }
+    source.append("var total = 0;\n")
+            .append("for (var i = 0; i < 20; i = i + 1) total = total + i;\n")
+            .append("print total + input;\n");
+    String script = source.toString();
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    Program program = Program.compile(script, new ArrayList<>());
+    ContextPool pool = new ContextPool(program, threads, Budget.UNLIMITED);
+
+    throughput("fresh pipeline per request", threads, requests, n -> {
+      Interpreter interpreter = new Interpreter(NULL_OUT, Budget.UNLIMITED);
+      interpreter.globals.define(Symbol.intern("input"), (double) n);
+      interpreter.run(parse(script));
+    });
+    throughput("shared program, context pool", threads, requests,
+            n -> pool.run(Map.of("input", (double) n)));
+  }
+
+  interface Request {
+    void run(int n) throws Exception, RuntimeError;
+  }
+
+  private static void throughput(String label, int threads, int requests,
+                                 Request request) throws Exception {
+    for (int round = 0; round < 3; round++) {   // the first ones warm up
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      long start = System.nanoTime();
+      for (int i = 0; i < requests; i++) {
+        int n = i;
+        executor.submit(() -> {
+          try {
+            request.run(n);
+          } catch (RuntimeError e) {
+            throw new IllegalStateException(e.getMessage());
+          }
+          return null;
+        });
+      }
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.HOURS);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      if (round == 2) {
+        System.out.printf("%-40s %10.0f req/s (%d threads)%n",
+                label, requests / seconds, threads);
+      }
+    }
+  }
+
+  // the desugared `for` loops Parser.forStatement produces, before and
+  // after Superinstructions
+  private static void fused(int iterations) {
+    List<Stmt> plain = parse(
+            "var product = 1;\n" +
+            "var text = \"\";\n" +
+            "for (var i = 0; i < " + iterations + "; i = i + 1) {\n" +
+            "  product = product * 1.0000001;\n" +
+            "}\n" +
+            "var n = " + iterations / 10 + ";\n" +
+            "for (var j = 0; j < n; j = j + 1) {\n" +
+            "  if (j <= 100) text = text + \"x\";\n" +
+            "}\n");
+    List<Stmt> fused = Superinstructions.apply(plain);
+
+    double before = time("for loops, plain AST", 10,
+            () -> interpret(plain, Budget.UNLIMITED));
+    double after = time("for loops, superinstructions", 10,
+            () -> interpret(fused, Budget.UNLIMITED));
+    System.out.printf("speedup %.2fx%n", before / after);
+  }
+
+  // what a native call costs in time and allocation on top of the loop
+  // around it, and builder() against concatenation for building a string
+  private static void natives(int iterations) {
+    com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    String loop = "var x = 0;\n" +
+            "for (var i = 0; i < " + iterations + "; i = i + 1) {\n  %s\n}\n";
+    String[][] cases = {
+            {"loop, no call", "x = x + i;"},
+            {"loop, 1-argument native", "x = abs(i);"},
+            {"loop, 2-argument native", "x = max(x, i);"},
+            {"loop, 3-argument native", "x = substr(\"abc\", 1, 2);"},
+    };
+    double[] ms = new double[1];
+    long[] allocated = new long[1];
+    long base = 0;
+    for (String[] c : cases) {
+      List<Stmt> program = Superinstructions.apply(
+              parse(String.format(loop, c[1])));
+      measure(threads, ms, allocated, 0,
+              () -> interpret(program, Budget.UNLIMITED));
+      if (base == 0) base = allocated[0];
+      System.out.printf("%-40s %10.3f ms %8.1f extra bytes/call%n", c[0],
+              ms[0], (double) (allocated[0] - base) / iterations);
+    }
+
+    int appends = Math.min(iterations / 20, 50_000);
+    List<Stmt> concat = Superinstructions.apply(parse(
+            "var s = \"\";\n" +
+            "for (var i = 0; i < " + appends + "; i = i + 1) s = s + str(i);\n"));
+    List<Stmt> built = Superinstructions.apply(parse(
+            "var b = builder();\n" +
+            "for (var i = 0; i < " + appends + "; i = i + 1) append(b, i);\n" +
+            "var s = build(b);\n"));
+    double before = time(appends + " appends, concatenation", 3,
+            () -> interpret(concat, Budget.UNLIMITED));
+    double after = time(appends + " appends, builder", 3,
+            () -> interpret(built, Budget.UNLIMITED));
+    System.out.printf("speedup %.2fx%n", before / after);
+  }
+
+  // an arithmetic loop on the plain interpreter, on FeedbackInterpreter
+  // starting cold, and starting from the profile a cold run saved. the
+  // bytes per run are the boxes the unboxed numeric sites don't make
+  private static void feedback(int iterations) throws Exception {
+    List<Stmt> program = Superinstructions.apply(parse(
+            "var x = 0;\n" +
+            "var y = 1.5;\n" +
+            "for (var i = 0; i < " + iterations + "; i = i + 1) {\n" +
+            "  x = x + i * y - (i / 2);\n" +
+            "  if (x > 1000000) x = x - 1000000;\n" +
+            "}\n"));
+    java.nio.file.Path saved =
+            java.nio.file.Files.createTempFile("jlox-feedback", ".txt");
+    TypeFeedback profiled = new TypeFeedback();
+    profiled.attach(program);
+    new FeedbackInterpreter(NULL_OUT, Budget.UNLIMITED, profiled)
+            .interpret(program);
+    profiled.write(saved);
+
+    Runnable plainRun = () -> interpret(program, Budget.UNLIMITED);
+    Runnable coldRun = () -> {
+      TypeFeedback feedback = new TypeFeedback();
+      feedback.attach(program);
+      new FeedbackInterpreter(NULL_OUT, Budget.UNLIMITED, feedback)
+              .interpret(program);
+    };
+    Runnable warmRun = () -> {
+      TypeFeedback feedback = new TypeFeedback();
+      feedback.attach(program);
+      try {
+        feedback.load(saved);
+      } catch (java.io.IOException e) {
+        throw new java.io.UncheckedIOException(e);
+      }
+      new FeedbackInterpreter(NULL_OUT, Budget.UNLIMITED, feedback)
+              .interpret(program);
+    };
+    double plain = time("loop, plain interpreter", 10, plainRun);
+    double cold = time("loop, feedback from cold", 10, coldRun);
+    double warm = time("loop, feedback preloaded", 10, warmRun);
+    java.nio.file.Files.delete(saved);
+
+    com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)
+                    ManagementFactory.getThreadMXBean();
+    double[] ms = new double[2];
+    long[] allocated = new long[2];
+    measure(threads, ms, allocated, 0, plainRun);
+    measure(threads, ms, allocated, 1, coldRun);
+    System.out.printf("speedup cold %.2fx, preloaded %.2fx%n",
+            plain / cold, plain / warm);
+    System.out.printf("allocated per run: plain %d B, feedback %d B%n",
+            allocated[0], allocated[1]);
+  }
+
+  // loops recomputing expressions of variables they never change
+  private static void licm(int iterations) {
+    List<Stmt> plain = Superinstructions.apply(parse(
+            "var limit = " + iterations + ";\n" +
+            "var scale = 3;\n" +
+            "var prefix = \"item\";\n" +
+            "var total = 0;\n" +
+            "var name = \"\";\n" +
+            "for (var i = 0; i < limit * 2; i = i + 2) {\n" +
+            "  total = total + i * (scale * scale + 1) / (limit - scale);\n" +
+            "  if (i < 10) name = prefix + \"-\" + prefix;\n" +
+            "}\n"));
+    List<Stmt> hoisted = LoopInvariants.apply(plain);
+
+    double before = time("loop, recomputing invariants", 10,
+            () -> interpret(plain, Budget.UNLIMITED));
+    double after = time("loop, invariants hoisted", 10,
+            () -> interpret(hoisted, Budget.UNLIMITED));
+    System.out.printf("speedup %.2fx%n", before / after);
+  }
+
+  // first checks the optimized graph and tier-up against the tree-walker
+  // on generated scripts, some with a name swapped for an undefined one or
+  // a number for a string: what they print, the runtime error and its
+  // line, and the globals left behind must all be the same. then what the
+  // graph passes remove from a generated script, and a loop full of
+  // repeated expressions and overwritten variables run both ways
+  private static void ir(int iterations) {
+    java.util.Random random = new java.util.Random(7);
+    int runs = 0;
+    int failed = 0;
+    for (int seed = 0; seed < 100; seed++) {
+      for (CorpusGenerator.Shape shape : CorpusGenerator.Shape.values()) {
+        if (shape == CorpusGenerator.Shape.HUGE_STRINGS && seed % 10 != 0) {
+          continue;
+        }
+        String[] lines = new CorpusGenerator(seed).generate(shape, 60)
+                .split("\n");
+        for (int mutation = 0; mutation < 3; mutation++) {
+          String[] mutated = lines.clone();
+          int line = random.nextInt(mutated.length);
+          if (mutation == 1) {
+            mutated[line] = mutated[line].replaceFirst("v\\d+", "zz");
+          } else if (mutation == 2) {
+            mutated[line] = mutated[line].replaceFirst("n0", "s0");
+          }
+          List<Diagnostic> errors = new ArrayList<>();
+          String source = String.join("\n", mutated);
+          List<Stmt> program = new Parser(
+                  new Lexer(source, errors).lexTokens(), errors).parse();
+          if (!errors.isEmpty()) continue;
+          program = LoopInvariants.apply(Superinstructions.apply(program));
+
+          String expected = ranBy("tree", program);
+          for (String how : new String[] {"graph", "tier-up 0", "tier-up 3"}) {
+            if (!ranBy(how, program).equals(expected)) {
+              throw new AssertionError(how + " differs, seed " + seed +
+                      ", " + shape + ", mutation " + mutation);
+            }
+          }
+          runs++;
+          if (expected.contains("[line ")) failed++;
+        }
+      }
+    }
+    System.out.println(runs + " scripts run the same by graph and tier-up, " +
+            failed + " of them stopped by runtime errors");
+
+    List<Stmt> corpus = Superinstructions.apply(parse(new CorpusGenerator(1)
+            .generate(CorpusGenerator.Shape.MIXED, 5_000)));
+    Ir generated = IrBuilder.lower(corpus);
+    int before = generated.instructions();
+    int blocks = generated.blocks.size();
+    IrOptimizer passes = IrOptimizer.optimize(generated);
+    System.out.printf("corpus: %d -> %d instructions, %d -> %d blocks%n",
+            before, generated.instructions(), blocks, generated.blocks.size());
+    System.out.printf("  %d common subexpressions, %d dead stores, " +
+            "%d branches folded, %d unreachable blocks%n",
+            passes.commonSubexpressions, passes.deadStores,
+            passes.foldedBranches, passes.unreachableBlocks);
+
+    List<Stmt> program = Superinstructions.apply(parse(
+            "var total = 0;\n" +
+            "var last = 0;\n" +
+            "for (var i = 0; i < " + iterations + "; i = i + 1) {\n" +
+            "  var a = i * 2 + 1;\n" +
+            "  var b = i * 2 + 1;\n" +
+            "  var unused = a;\n" +
+            "  last = a;\n" +
+            "  last = b;\n" +
+            "  if (true) total = total + a - b + (i * 2 + 1);\n" +
+            "}\n"));
+    Ir graph = IrBuilder.lower(program);
+    IrOptimizer.optimize(graph);
+
+    double tree = time("loop, tree-walker", 10,
+            () -> interpret(program, Budget.UNLIMITED));
+    double optimized = time("loop, optimized graph", 10,
+            () -> new IrInterpreter(new Interpreter(NULL_OUT), NULL_OUT)
+                    .interpret(graph));
+    System.out.printf("speedup %.2fx%n", tree / optimized);
+  }
+
+  // what `program` printed, the runtime error it stopped at and the globals
+  // it left, run by the tree-walker, the optimized graph or TieredInterpreter
+  private static String ranBy(String how, List<Stmt> program) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes, true);
+    Interpreter interpreter = how.startsWith("tier-up ")
+            ? new TieredInterpreter(out,
+                    Integer.parseInt(how.substring("tier-up ".length())))
+            : new Interpreter(out);
+    String failure = "";
+    try {
+      if (how.equals("graph")) {
+        Ir graph = IrBuilder.lower(program);
+        IrOptimizer.optimize(graph);
+        new IrInterpreter(interpreter, out).run(graph);
+      } else {
+        interpreter.run(program);
+      }
+    } catch (RuntimeError error) {
+      failure = error.getMessage() + " [line " + error.line + "]\n";
+    }
+    Map<String, String> globals = new java.util.TreeMap<>();
+    interpreter.globals.forEach((name, value) ->
+            globals.put(name.name, Interpreter.stringify(value)));
+    return bytes + failure + globals;
+  }
+
+  // a single long loop over block locals, so the only way to speed it up
+  // is to replace it while it runs
+  private static void tiers(int iterations) {
+    List<Stmt> program = Superinstructions.apply(parse(
+            "{\n" +
+            "  var total = 0;\n" +
+            "  var scale = 3;\n" +
+            "  var i = 0;\n" +
+            "  while (i < " + iterations + ") {\n" +
+            "    var step = i * scale + 1;\n" +
+            "    total = total + step - i * scale;\n" +
+            "    i = i + 1;\n" +
+            "  }\n" +
+            "  print total;\n" +
+            "}\n"));
+
+    double plain = time("loop, tree-walker only", 10,
+            () -> interpret(program, Budget.UNLIMITED));
+    TieredInterpreter[] last = new TieredInterpreter[1];
+    double tiered = time("loop, tier-up after " +
+            TieredInterpreter.DEFAULT_THRESHOLD, 10, () -> {
+      last[0] = new TieredInterpreter(NULL_OUT,
+              TieredInterpreter.DEFAULT_THRESHOLD);
+      last[0].interpret(program);
+    });
+    last[0].report(System.out);
+    System.out.printf("speedup %.2fx%n", plain / tiered);
+  }
+
+  // first checks Pipeline on a few hundred generated sources, some salted
+  // with stray characters and broken statements: at every chunk size it
+  // reports exactly the diagnostics a plain parse does, runs and prints
+  // the same as at every other chunk size, and with no errors the same as
+  // a plain run. then times a long generated script run the usual way,
+  // all lexed and parsed before the first statement runs, and pipelined.
+  // peak heap is what the collector saw in use, only a rough guide
+  private static void pipeline(int size) {
+    java.util.Random random = new java.util.Random(3);
+    String[] breaks = {"(", ";", "}", "{", "\"", "var", "else", "print"};
+    int broken = 0;
+    for (int seed = 0; seed < 300; seed++) {
+      String source = new CorpusGenerator(seed).generate(
+              CorpusGenerator.Shape.MIXED, 20 + seed % 60);
+      if (seed % 3 == 1) source = salt(source, random);
+      if (seed % 3 == 2) {
+        int at = random.nextInt(source.length());
+        source = source.substring(0, at) +
+                breaks[random.nextInt(breaks.length)] + source.substring(at);
+      }
+      // a plain run's output, or the diagnostics it stops with
+      List<Diagnostic> errors = new ArrayList<>();
+      new Parser(new Lexer(source, errors).lexTokens(), errors).parse();
+      String expected;
+      if (errors.isEmpty()) {
+        expected = outcome(source, 0);
+      } else {
+        StringBuilder diagnostics = new StringBuilder();
+        for (Diagnostic error : errors) diagnostics.append(error).append('\n');
+        expected = diagnostics.append("exit 65\n").toString();
+        broken++;
+      }
+
+      String first = null;
+      for (int chunk : new int[] {1, 7, 100, Pipeline.DEFAULT_CHUNK_TOKENS}) {
+        String outcome = outcome(source, chunk);
+        if (first == null) first = outcome;
+        // statements before an error may stop at a runtime error of their
+        // own, before the diagnostics are reached
+        boolean same = errors.isEmpty() ? outcome.equals(expected)
+                : outcome.endsWith(expected) || outcome.endsWith("exit 70\n");
+        if (!same || !outcome.equals(first)) {
+          throw new AssertionError("pipelined run differs, seed " + seed +
+                  ", chunks of " + chunk);
+        }
+      }
+    }
+    System.out.println("300 sources run the same pipelined, " + broken +
+            " of them stopped by errors");
+
+    String source = new CorpusGenerator(11).generate(
+            CorpusGenerator.Shape.MIXED, size);
+    System.out.printf("%d bytes, %d cores%n", source.length(),
+            Runtime.getRuntime().availableProcessors());
+    Runnable batch = () -> {
+      List<Stmt> statements = LoopInvariants.apply(
+              Superinstructions.apply(parse(source)));
+      interpret(statements, Budget.UNLIMITED);
+    };
+    Runnable pipelined = () -> new Pipeline(source,
+            Pipeline.DEFAULT_CHUNK_TOKENS, Pipeline.DEFAULT_QUEUE_CHUNKS)
+            .run(new Interpreter(NULL_OUT));
+
+    double plain = time("parse, then run", 5, batch);
+    double overlapped = time("pipelined", 5, pipelined);
+    System.out.printf("speedup %.2fx%n", plain / overlapped);
+    System.out.printf("peak heap: %d MB parse-then-run, %d MB pipelined%n",
+            peakHeap(batch) >> 20, peakHeap(pipelined) >> 20);
+  }
+
+  // what a run prints and reports, then its exit status if not 0. a
+  // pipelined run with chunks of `chunkTokens`, or a plain one for 0
+  private static String outcome(String source, int chunkTokens) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PrintStream err = Lox.err;
+    Lox.err = new PrintStream(out, true);
+    Lox.hadRuntimeError = false;
+    try {
+      Interpreter interpreter = new Interpreter(Lox.err);
+      if (chunkTokens == 0) {
+        interpreter.interpret(
+                LoopInvariants.apply(Superinstructions.apply(parse(source))));
+      } else if (!new Pipeline(source, chunkTokens, 2).run(interpreter)) {
+        return out + "exit 65\n";
+      }
+      return out + (Lox.hadRuntimeError ? "exit 70\n" : "");
+    } finally {
+      Lox.err = err;
+    }
+  }
+
+  // first checks IncrementalParser against a fresh Lexer and Parser after
+  // every one of a run of random edits to generated scripts, pieces of
+  // syntax typed or deleted anywhere: the same tokens and lines, the same
+  // diagnostics and the same statements. then keystrokes at random places
+  // in a long script: a digit typed next to a digit, or a newline typed
+  // after a `;`, each then deleted again. one keystroke is the pair of
+  // edits, timed against lexing and parsing the whole edited source once
+  private static void incremental(int lines) {
+    java.util.Random edits = new java.util.Random(5);
+    String[] pieces = {
+            "\n", " ", ";", "{", "}", "(", ")", "\"", "else ", "if (x) ",
+            "while (a < 3) ", "var q = 1;", "print 2;", "1.", "5", "=", "==",
+            "// c\n", "x", "and", "+", "\n\n", "}\n", "{\n", "@", "/", "!",
+            "[", "]", "a[1]", "a[i] = 2;",
+    };
+    CorpusGenerator.Shape[] shapes = CorpusGenerator.Shape.values();
+    for (int seed = 0; seed < 500; seed++) {
+      IncrementalParser checked = new IncrementalParser(
+              new CorpusGenerator(seed).generate(shapes[seed % shapes.length],
+                      20 + seed % 40));
+      for (int edit = 0; edit < 40; edit++) {
+        String text = checked.source();
+        int offset = edits.nextInt(text.length() + 1);
+        int removed = edits.nextInt(3) == 0
+                ? Math.min(edits.nextInt(6), text.length() - offset) : 0;
+        String inserted = edits.nextInt(4) == 0
+                ? "" : pieces[edits.nextInt(pieces.length)];
+        checked.edit(offset, removed, inserted);
+
+        List<Diagnostic> errors = new ArrayList<>();
+        List<Token> tokens = new Lexer(checked.source(), errors).lexTokens();
+        List<Stmt> statements = new Parser(tokens, errors).parse();
+        if (!(describe(checked.tokens(), checked.diagnostics()) +
+                tree(checked.statements())).equals(
+                describe(tokens, errors) + tree(statements))) {
+          throw new AssertionError("incremental parse differs, seed " +
+                  seed + ", edit " + edit);
+        }
+      }
+    }
+    System.out.println("20000 edits parse incrementally as from scratch");
+
+    StringBuilder generated = new StringBuilder();
+    for (long seed = 1; generated.chars().filter(c -> c == '\n').count()
+            < lines; seed++) {
+      generated.append(new CorpusGenerator(seed).generate(
+              CorpusGenerator.Shape.MIXED, 2_000));
+    }
+    String source = generated.toString();
+    java.util.Random random = new java.util.Random(7);
+    int[] places = new int[2_000];
+    for (int i = 0; i < places.length; i++) {
+      int place;
+      do {
+        place = random.nextInt(source.length());
+      } while (!Character.isDigit(source.charAt(place))
+              && source.charAt(place) != ';');
+      places[i] = place + 1;
+    }
+    System.out.printf("%d lines, %d characters%n",
+            source.chars().filter(c -> c == '\n').count(), source.length());
+
+    IncrementalParser parser = new IncrementalParser(source);
+    long[] work = new long[2];
+    int[] next = new int[1];
+    double incremental = time("keystroke, incremental", 200, () -> {
+      int place = places[next[0]++ % places.length];
+      String typed = Character.isDigit(parser.source().charAt(place - 1))
+              ? "1" : "\n";
+      parser.edit(place, 0, typed);
+      work[0] += parser.relexed;
+      work[1] += parser.reparsed;
+      parser.edit(place, 1, "");
+    });
+    if (!parser.source().equals(source)
+            || !parser.diagnostics().isEmpty()) {
+      throw new IllegalStateException("the edits didn't cancel out");
+    }
+    System.out.printf("  %.1f tokens lexed, %.1f parsed per keystroke%n",
+            work[0] / (double) next[0], work[1] / (double) next[0]);
+    double full = time("keystroke, lex + parse everything", 5, () -> {
+      int place = places[next[0]++ % places.length];
+      String typed = Character.isDigit(source.charAt(place - 1)) ? "1" : "\n";
+      parse(source.substring(0, place) + typed + source.substring(place));
+    });
+    System.out.printf("speedup %.0fx%n", full / incremental);
+  }
+
+  // element accesses to an array as long as the loop, against the same
+  // loop without them. a write stores into the double[] and allocates
+  // nothing, a read boxes the one Double the Lox value needs
+  private static void arrays(int iterations) {
+    com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    String loop = "var a = array(" + iterations + ");\nvar x = 0;\n" +
+            "for (var i = 0; i < " + iterations + "; i = i + 1) {\n  %s\n}\n";
+    String[][] cases = {
+            {"loop, no access", "x = i;"},
+            {"loop, element write", "a[i] = i;"},
+            {"loop, element read", "x = a[i];"},
+            {"loop, element update, fused", "a[i] = a[i] + i;"},
+            {"loop, element read + write", "a[i] = i + a[i];"},
+    };
+    double[] ms = new double[1];
+    long[] allocated = new long[1];
+    long base = 0;
+    for (String[] c : cases) {
+      List<Stmt> program = Superinstructions.apply(
+              parse(String.format(loop, c[1])));
+      measure(threads, ms, allocated, 0,
+              () -> interpret(program, Budget.UNLIMITED));
+      if (base == 0) base = allocated[0];
+      System.out.printf("%-40s %10.3f ms %8.1f extra bytes/iteration%n",
+              c[0], ms[0], (double) (allocated[0] - base) / iterations);
+    }
+  }
+
+  // a script that's one big string literal, lexed and parsed with its
+  // lexeme and value as slices of the source, and once more copied out of
+  // it the way IncrementalParser lexes. the heap is measured with the
+  // source and the tokens still held, then the whole script is run
+  private static void literals(int megabytes) {
+    String source = "var blob = \"" + "x".repeat(megabytes << 20) + "\";\n" +
+            "print blob;\nprint blob == blob + \"\";\n";
+    long base = heapUsed();
+    List<Token> sliced = new Lexer(source, new ArrayList<>()).lexTokens();
+    long slicedBytes = heapUsed() - base;
+    List<Token> copied =
+            new Lexer(source, new ArrayList<>()).copying().lexTokens();
+    long copiedBytes = heapUsed() - base - slicedBytes;
+    System.out.printf("%-40s %10.1f MB%n", "source", source.length() / 1e6);
+    System.out.printf("%-40s %10.1f MB%n", "tokens, sliced", slicedBytes / 1e6);
+    System.out.printf("%-40s %10.1f MB%n", "tokens, copied", copiedBytes / 1e6);
+    java.lang.ref.Reference.reachabilityFence(sliced);
+    java.lang.ref.Reference.reachabilityFence(copied);
+
+    double slicedMs = time("lex + parse + run, sliced", 5, () ->
+            interpret(new Parser(new Lexer(source, new ArrayList<>())
+                    .lexTokens(), new ArrayList<>()).parse(),
+                    Budget.UNLIMITED));
+    double copiedMs = time("lex + parse + run, copied", 5, () ->
+            interpret(new Parser(new Lexer(source, new ArrayList<>())
+                    .copying().lexTokens(), new ArrayList<>()).parse(),
+                    Budget.UNLIMITED));
+    System.out.printf("speedup %.2fx%n", copiedMs / slicedMs);
+  }
+
+  private static long heapUsed() {
+    System.gc();
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  // requests reading a big configuration, once copied into every request's
+  // interpreter and once read from one SharedEnvironment. the shared run
+  // also counts every loop pass in one global, so all threads update the
+  // same variable, and checks none of the updates got lost
+  private static void shared(int requests) throws Exception {
+    int settings = 2_000;
+    int passes = 50;
+    Symbol hits = Symbol.intern("hits");
+    SharedEnvironment config = new SharedEnvironment();
+    for (int i = 0; i < settings; i++) {
+      config.define(Symbol.intern("setting" + i), (double) i);
+    }
+    config.define(hits, 0.0);
+
+    StringBuilder reads = new StringBuilder();
+    for (int i = 0; i < 8; i++) {
+      reads.append(" + setting").append(i * 251 % settings);
+    }
+    List<Stmt> copied = Superinstructions.apply(parse(
+            "var total = 0;\nvar i = 0;\n" +
+            "while (i < " + passes + ") {\n" +
+            "  total = total" + reads + ";\n" +
+            "  i = i + 1;\n" +
+            "}\n"));
+    List<Stmt> counted = Superinstructions.apply(parse(
+            "var total = 0;\nvar i = 0;\n" +
+            "while (i < " + passes + ") {\n" +
+            "  total = total" + reads + ";\n" +
+            "  hits = hits + 1;\n" +
+            "  i = i + 1;\n" +
+            "}\n"));
+
+    // past the core count too, threads preempted mid-update race as well
+    int cores = Runtime.getRuntime().availableProcessors();
+    int most = Math.max(cores, 8);
+    System.out.printf("%d cores%n", cores);
+    for (int threads = 1; ; threads = Math.min(threads * 2, most)) {
+      throughput("copied globals", threads, requests, n -> {
+        Interpreter interpreter = new Interpreter(NULL_OUT, Budget.UNLIMITED);
+        config.forEach(interpreter.globals::define);
+        interpreter.run(copied);
+      });
+      throughput("shared globals", threads, requests, n ->
+              new Interpreter(NULL_OUT, Budget.UNLIMITED, config).run(copied));
+      config.define(hits, 0.0);
+      throughput("shared globals, one shared counter", threads, requests,
+              n -> new Interpreter(NULL_OUT, Budget.UNLIMITED, config)
+                      .run(counted));
+      // throughput() makes three rounds of `requests`
+      double expected = 3.0 * requests * passes;
+      double counter = (Double) config.getHere(hits);
+      System.out.println(counter == expected ? "counter: no lost updates"
+              : "counter: " + counter + ", expected " + expected);
+      if (threads == most) break;
+    }
+  }
+
+  // a prelude defining `size` globals and then working out one more,
+  // warmed up by running it and by restoring a snapshot of what it left
+  // behind
+  private static void snapshot(int size) throws Exception {
+    StringBuilder source = new StringBuilder("var log = builder();\n");
+    for (int i = 0; i < size; i++) {
+      switch (i % 4) {
+        case 0: source.append("var n").append(i).append(" = ").append(i)
+                .append(" * 1.5 + 2;\n"); break;
+        case 1: source.append("var s").append(i).append(" = \"name")
+                .append(i % 100).append("\";\n"); break;
+        case 2: source.append("append(log, ").append(i).append(");\n"); break;
+        default: source.append("var b").append(i).append(" = ")
+                .append(i % 8 == 3).append(";\n"); break;
+      }
+    }
+    // and the setup work a real prelude does before it settles
+    source.append("var total = 0;\nvar k = 0;\n")
+            .append("while (k < ").append(size * 10).append(") {\n")
+            .append("  total = total + k * 2 - k;\n  k = k + 1;\n}\n");
+    List<Stmt> prelude = parse(source.toString());
+    java.nio.file.Path file = java.nio.file.Files.createTempFile("jlox", ".snap");
+    try {
+      Interpreter warm = new Interpreter(NULL_OUT);
+      warm.interpret(prelude);
+      Snapshot.write(warm.globals, file);
+      System.out.printf("%d globals, %d KB snapshot%n", warm.globals.size(),
+              java.nio.file.Files.size(file) >> 10);
+
+      double run = time("run the prelude", 10,
+              () -> new Interpreter(NULL_OUT).interpret(prelude));
+      double write = time("write the snapshot", 10, () -> {
+        try {
+          Snapshot.write(warm.globals, file);
+        } catch (java.io.IOException e) {
+          throw new RuntimeException(e);
+        }
+      });
+      Interpreter[] last = new Interpreter[1];
+      double restore = time("restore the snapshot", 10, () -> {
+        last[0] = new Interpreter(NULL_OUT);
+        try {
+          Snapshot.restore(file, last[0].globals);
+        } catch (java.io.IOException e) {
+          throw new RuntimeException(e);
+        }
+      });
+      System.out.printf("restore vs run %.2fx, write %.0f%% of a run%n",
+              run / restore, 100 * write / run);
+
+      // the same globals, and one builder is still one builder
+      Map<Symbol, Object> expected = new java.util.HashMap<>();
+      warm.globals.forEach(expected::put);
+      Map<Symbol, Object> actual = new java.util.HashMap<>();
+      last[0].globals.forEach(actual::put);
+      boolean same = expected.size() == actual.size();
+      for (Map.Entry<Symbol, Object> entry : expected.entrySet()) {
+        Object value = entry.getValue();
+        Object restored = actual.get(entry.getKey());
+        same &= value instanceof Natives.Builder
+                ? restored instanceof Natives.Builder && ((Natives.Builder)
+                    value).text.toString().equals(
+                    ((Natives.Builder) restored).text.toString())
+                : java.util.Objects.equals(value, restored);
+      }
+      System.out.println(same ? "round trip: identical" : "round trip: DIFFERS");
+    } finally {
+      java.nio.file.Files.deleteIfExists(file);
+    }
+  }
+
+  private static long peakHeap(Runnable task) {
+    List<java.lang.management.MemoryPoolMXBean> pools =
+            ManagementFactory.getMemoryPoolMXBeans();
+    System.gc();
+    for (java.lang.management.MemoryPoolMXBean pool : pools) {
+      pool.resetPeakUsage();
+    }
+    task.run();
+    long peak = 0;
+    for (java.lang.management.MemoryPoolMXBean pool : pools) {
+      if (pool.getType() == java.lang.management.MemoryType.HEAP) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak;
+  }
+
+  // what publishing the current statement costs, and with the sampler
+  // thread on top. on a single core the sampler competes for the CPU
+  private static void profile(int iterations) {
+    List<Stmt> program = Superinstructions.apply(parse(
+            "var total = 0;\n" +
+            "for (var i = 0; i < " + iterations + "; i = i + 1) {\n" +
+            "  if (i < 10) total = total + 1; else total = total + 2;\n" +
+            "}\n"));
+
+    double plain = time("loop, no profiler", 10,
+            () -> interpret(program, Budget.UNLIMITED));
+    double published = time("loop, publishing, no sampler", 10, () -> {
+      Interpreter interpreter = new Interpreter(NULL_OUT, Budget.UNLIMITED);
+      interpreter.publishCurrentStatement();
+      interpreter.interpret(program);
+    });
+    double profiled = time("loop, profiler at 1000 Hz", 10, () -> {
+      Interpreter interpreter = new Interpreter(NULL_OUT, Budget.UNLIMITED);
+      Profiler profiler = new Profiler(interpreter, program,
+              Profiler.DEFAULT_INTERVAL_NANOS);
+      profiler.start();
+      interpreter.interpret(program);
+      try {
+        profiler.stop();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    System.out.printf("overhead: publishing %.1f%%, with sampler %.1f%%%n",
+            (published / plain - 1) * 100, (profiled / plain - 1) * 100);
+  }
+
+  // coverage is supposed to be far cheaper than recording a full trace
+  private static void coverage(int iterations) {
+    String source =
+            "var total = 0;\n" +
+            "for (var i = 0; i < " + iterations + "; i = i + 1) {\n" +
+            "  if (i < 10) total = total + 1; else total = total + 2;\n" +
+            "}\n";
+    List<Stmt> program = Superinstructions.apply(parse(source));
+    Coverage coverage = new Coverage();
+    coverage.track(program, source);
+    TraceBuffer trace = new TraceBuffer(TraceBuffer.DEFAULT_RECORDS);
+
+    double plain = time("loop, plain interpreter", 10,
+            () -> interpret(program, Budget.UNLIMITED));
+    double covered = time("loop, coverage", 10,
+            () -> new CoverageInterpreter(NULL_OUT, Budget.UNLIMITED, coverage)
+                    .interpret(program));
+    double traced = time("loop, trace recorder", 10,
+            () -> new TracingInterpreter(NULL_OUT, Budget.UNLIMITED, trace)
+                    .interpret(program));
+    System.out.printf("coverage overhead %.1f%%, trace overhead %.1f%%%n",
+            (covered / plain - 1) * 100, (traced / plain - 1) * 100);
+  }
+
+  // runs Lexer, Parser and Interpreter over generated programs of doubling
+  // size and prints time, throughput and allocation per stage. "growth" is
+  // log2 of how much slower a stage got when the input doubled: about 1 is
+  // linear, anything near 2 is quadratic and gets flagged
+  private static void scaling(int maxSize) {
+    com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    CorpusGenerator generator = new CorpusGenerator(42);
+
+    for (CorpusGenerator.Shape shape : CorpusGenerator.Shape.values()) {
+      System.out.println(shape);
+      System.out.printf("  %9s %10s %9s | %9s %9s %9s | %8s %8s %8s | %s%n",
+              "size", "bytes", "tokens", "lex ms", "parse ms", "run ms",
+              "lex MB", "parse MB", "run MB", "growth lex/parse/run");
+
+      double[] previous = null;
+      for (int size = Math.max(maxSize / 64, 1); size <= maxSize; size *= 2) {
+        int scaled = shape == CorpusGenerator.Shape.HUGE_STRINGS
+                ? size * 64 : size;
+        String source = generator.generate(shape, scaled);
+
+        double[] ms = new double[3];
+        long[] allocated = new long[3];
+        AtomicReference<List<Token>> tokens = new AtomicReference<>();
+        AtomicReference<List<Stmt>> statements = new AtomicReference<>();
+        try {
+          measure(threads, ms, allocated, 0, () -> tokens.set(
+                  new Lexer(source, new ArrayList<>()).lexTokens()));
+          measure(threads, ms, allocated, 1, () -> statements.set(
+                  new Parser(tokens.get(), new ArrayList<>()).parse()));
+          measure(threads, ms, allocated, 2,
+                  () -> interpret(statements.get(), Budget.UNLIMITED));
+        } catch (StackOverflowError e) {
+          System.out.printf("  %9d stack overflow, nesting too deep%n", scaled);
+          break;
+        }
+
+        StringBuilder growth = new StringBuilder();
+        for (int stage = 0; stage < 3; stage++) {
+          if (previous == null) break;
+          double exponent = Math.log(ms[stage] / previous[stage]) / Math.log(2);
+          growth.append(String.format("%5.2f", exponent));
+          // tiny timings are mostly noise, don't cry wolf over them
+          if (exponent > 1.5 && ms[stage] > 5) growth.append('!');
+          growth.append(' ');
+        }
+
+        System.out.printf("  %9d %10d %9d | %9.2f %9.2f %9.2f | %8.1f %8.1f %8.1f | %s%n",
+                scaled, source.length(), tokens.get().size(),
+                ms[0], ms[1], ms[2],
+                allocated[0] / 1e6, allocated[1] / 1e6, allocated[2] / 1e6,
+                growth);
+        previous = ms;
+      }
+    }
+  }
+
+  // parses a generated program of `size` top-level statements with the
+  // sequential Parser and with ParallelParser on pools of 1, 2, 4, ...
+  // threads, checking every parallel parse gives the same tree and slots
+  private static void parallelParse(int size) {
+    String source = new CorpusGenerator(7).generate(
+            CorpusGenerator.Shape.MIXED, size);
+    List<Token> tokens = new Lexer(source, new ArrayList<>()).lexTokens();
+    System.out.printf("%d bytes, %d tokens, %d cores%n", source.length(),
+            tokens.size(), Runtime.getRuntime().availableProcessors());
+
+    String expected = dump(new Parser(tokens, new ArrayList<>()).parse());
+    double sequential = time("sequential", 5,
+            () -> new Parser(tokens, new ArrayList<>()).parse());
+
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (int threads = 1; ; threads *= 2) {
+      ForkJoinPool pool = new ForkJoinPool(Math.min(threads, cores));
+      Supplier<List<Stmt>> parallel = () -> new ParallelParser(tokens,
+              new ArrayList<>(), pool, ParallelParser.DEFAULT_CHUNK_TOKENS)
+              .parse();
+      if (!dump(parallel.get()).equals(expected)) {
+        throw new AssertionError("parallel parse differs with " + threads +
+                " threads");
+      }
+      double ms = time("parallel, " + threads + " threads", 5, parallel::get);
+      System.out.printf("%-40s %10.2fx%n", "  speedup", sequential / ms);
+      pool.shutdown();
+      if (threads >= cores) break;
+    }
+  }
+
+  // first checks ParallelLexer against Lexer on a few hundred generated
+  // sources, cut into tiny chunks and salted with multi-line strings,
+  // comments, unterminated strings and stray characters so chunk
+  // boundaries land everywhere. then times both on a program of `size`
+  // statements
+  private static void parallelLex(int size) {
+    java.util.Random random = new java.util.Random(11);
+    ForkJoinPool small = new ForkJoinPool(4);
+    for (int seed = 0; seed < 300; seed++) {
+      String source = salt(new CorpusGenerator(seed).generate(
+              CorpusGenerator.Shape.MIXED, 50 + seed), random);
+      List<Diagnostic> expectedErrors = new ArrayList<>();
+      String expected = describe(new Lexer(source, expectedErrors).lexTokens(),
+              expectedErrors);
+      for (int chunk : new int[] {1, 7, 64, 500}) {
+        List<Diagnostic> errors = new ArrayList<>();
+        List<Token> tokens =
+                new ParallelLexer(source, errors, small, chunk).lexTokens();
+        if (!describe(tokens, errors).equals(expected)) {
+          throw new AssertionError("parallel lexing differs, seed " + seed +
+                  ", chunks of " + chunk);
+        }
+      }
+    }
+    small.shutdown();
+    System.out.println("300 sources lex identically in parallel");
+
+    String source = new CorpusGenerator(7).generate(
+            CorpusGenerator.Shape.MIXED, size);
+    System.out.printf("%d bytes, %d cores%n", source.length(),
+            Runtime.getRuntime().availableProcessors());
+    double sequential = time("sequential", 5,
+            () -> new Lexer(source, new ArrayList<>()).lexTokens());
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (int threads = 1; ; threads *= 2) {
+      ForkJoinPool pool = new ForkJoinPool(Math.min(threads, cores));
+      double ms = time("parallel, " + threads + " threads", 5,
+              () -> new ParallelLexer(source, new ArrayList<>(), pool,
+                      ParallelLexer.DEFAULT_CHUNK_CHARS).lexTokens());
+      System.out.printf("%-40s %10.2fx%n", "  speedup", sequential / ms);
+      pool.shutdown();
+      if (threads >= cores) break;
+    }
+  }
+
+  // breaks up lines with things that cross them
+  private static String salt(String source, java.util.Random random) {
+    String[] salts = {
+            "\"multi\nline\n\nstring\"", "// comment \"not a string\n",
+            "\"one \\ line\"", "@", "\n\n", "\"\n", "1.\n5", "/",
+    };
+    StringBuilder out = new StringBuilder();
+    for (String line : source.split("\n", -1)) {
+      out.append(line);
+      if (random.nextInt(8) == 0) {
+        out.append(salts[random.nextInt(salts.length)]);
+      }
+      out.append('\n');
+    }
+    // sometimes leave a string open at the very end
+    if (random.nextInt(4) == 0) out.append("\"unterminated\n...");
+    return out.toString();
+  }
+
+  private static String describe(List<Token> tokens, List<Diagnostic> errors) {
+    StringBuilder out = new StringBuilder();
+    for (Token token : tokens) {
+      out.append(token.line).append(' ').append(token).append(' ')
+              .append(token.symbol == null ? "" : token.symbol.name)
+              .append('\n');
+    }
+    for (Diagnostic error : errors) out.append(error).append('\n');
+    return out.toString();
+  }
+
+  // the tree plus every statement's coverage slot
+  private static String dump(List<Stmt> statements) {
+    StringBuilder out = new StringBuilder();
+    new AstPrinter(out).write(statements);
+    List<Stmt> all = new ArrayList<>(statements);
+    for (int i = 0; i < all.size(); i++) {
+      Stmt stmt = all.get(i);
+      if (stmt == null) continue;
+      out.append(stmt.slot).append(' ');
+      if (stmt instanceof Stmt.Block) {
+        all.addAll(((Stmt.Block) stmt).statements);
+      } else if (stmt instanceof Stmt.If) {
+        all.add(((Stmt.If) stmt).thenBranch);
+        all.add(((Stmt.If) stmt).elseBranch);
+      } else if (stmt instanceof Stmt.While) {
+        all.add(((Stmt.While) stmt).body);
+      }
+    }
+    return out.toString();
+  }
+
+  // every statement and its line, breadth first, with the expressions it
+  // holds directly. a declaration that failed is "error", which AstPrinter
+  // can't print, and a block may hold one
+  private static String tree(List<Stmt> statements) {
+    StringBuilder out = new StringBuilder();
+    List<Stmt> all = new ArrayList<>(statements);
+    for (int i = 0; i < all.size(); i++) {
+      Stmt stmt = all.get(i);
+      if (stmt == null) {
+        out.append("error\n");
+        continue;
+      }
+      out.append(stmt.line).append(' ')
+              .append(stmt.getClass().getSimpleName());
+      if (stmt instanceof Stmt.Block) {
+        all.addAll(((Stmt.Block) stmt).statements);
+      } else if (stmt instanceof Stmt.If) {
+        Stmt.If branch = (Stmt.If) stmt;
+        out.append(' ').append(AstPrinter.print(branch.condition));
+        all.add(branch.thenBranch);
+        if (branch.elseBranch != null) {
+          out.append(" else");
+          all.add(branch.elseBranch);
+        }
+      } else if (stmt instanceof Stmt.While) {
+        out.append(' ').append(AstPrinter.print(((Stmt.While) stmt).condition));
+        all.add(((Stmt.While) stmt).body);
+      } else if (stmt instanceof Stmt.Var) {
+        Stmt.Var var = (Stmt.Var) stmt;
+        out.append(' ').append(var.name.lexeme);
+        if (var.initializer != null) {
+          out.append(' ').append(AstPrinter.print(var.initializer));
+        }
+      } else if (stmt instanceof Stmt.Print) {
+        out.append(' ').append(
+                AstPrinter.print(((Stmt.Print) stmt).expression));
+      } else {
+        out.append(' ').append(
+                AstPrinter.print(((Stmt.Expression) stmt).expression));
+      }
+      out.append('\n');
+    }
+    return out.toString();
+  }
+
+  // best of three, which is less noisy than a mean for single long runs
+  private static void measure(com.sun.management.ThreadMXBean threads,
+                              double[] ms, long[] allocated, int stage,
+                              Runnable task) {
+    ms[stage] = Double.MAX_VALUE;
+    for (int i = 0; i < 3; i++) {
+      long bytes = threads.getCurrentThreadAllocatedBytes();
+      long start = System.nanoTime();
+      task.run();
+      ms[stage] = Math.min(ms[stage], (System.nanoTime() - start) / 1e6);
+      allocated[stage] = threads.getCurrentThreadAllocatedBytes() - bytes;
+    }
+  }
+}
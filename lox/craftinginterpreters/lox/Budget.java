@@ -0,0 +1,40 @@
+package craftinginterpreters.lox;
+
+// limits for one call to Interpreter.interpret(), so an untrusted script
+// can't spin or allocate forever. zero means "no limit" for every field.
+class Budget {
+  static final Budget UNLIMITED = new Budget(0, 0, 0);
+
+  final long maxInstructions;   // statements executed + loop back-edges
+  final long timeoutMillis;     // wall clock, measured from interpret()
+  final long maxMemoryBytes;    // approximate, see Interpreter.charge()
+
+  Budget(long maxInstructions, long timeoutMillis, long maxMemoryBytes) {
+    this.maxInstructions = maxInstructions;
+    this.timeoutMillis = timeoutMillis;
+    this.maxMemoryBytes = maxMemoryBytes;
+  }
+
+  boolean isUnlimited() {
+    return maxInstructions == 0 && timeoutMillis == 0 && maxMemoryBytes == 0;
+  }
+
+  // returns a copy with one limit replaced, for `--max-...=N` style flags.
+  // null if the flag isn't one of ours
+  Budget withOption(String option) {
+    int equals = option.indexOf('=');
+    if (equals < 0) return null;
+    long value = Long.parseLong(option.substring(equals + 1));
+
+    switch (option.substring(0, equals)) {
+      case "--max-instructions":
+        return new Budget(value, timeoutMillis, maxMemoryBytes);
+      case "--timeout-ms":
+        return new Budget(maxInstructions, value, maxMemoryBytes);
+      case "--max-memory":
+        return new Budget(maxInstructions, timeoutMillis, value);
+      default:
+        return null;
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// runs one Program over and over, from many threads, with different inputs.
+// each context owns an Interpreter and an output buffer that get reset
+// between runs instead of being rebuilt, and a run borrows a context for
+// its whole duration, so no interpreter state is ever shared.
+class ContextPool {
+  private final Program program;
+  private final BlockingQueue<Context> idle;
+
+  // what one run printed, and the error that stopped it, if any
+  static class Result {
+    Result(String output, RuntimeError error) {
+      this.output = output;
+      this.error = error;
+    }
+
+    final String output;
+    final RuntimeError error;
+  }
+
+  private static class Context {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    final PrintStream out =
+            new PrintStream(buffer, false, StandardCharsets.UTF_8);
+    final Interpreter interpreter;
+
+    Context(Budget budget, Coverage coverage) {
+      interpreter = coverage == null ? new Interpreter(out, budget)
+              : new CoverageInterpreter(out, budget, coverage);
+    }
+  }
+
+  ContextPool(Program program, int size, Budget budget) {
+    this(program, size, budget, null);
+  }
+
+  // with a Coverage already tracking `program`, every context records into
+  // the same bitmap
+  ContextPool(Program program, int size, Budget budget, Coverage coverage) {
+    this.program = program;
+    this.idle = new ArrayBlockingQueue<>(size);
+    // everything is allocated up front so the first requests don't pay for it
+    for (int i = 0; i < size; i++) {
+      idle.add(new Context(budget, coverage));
+    }
+  }
+
+  // blocks until a context is free. `inputs` become globals before the
+  // program's own statements run
+  Result run(Map<String, Object> inputs) throws InterruptedException {
+    Context context = idle.take();
+    try {
+      context.buffer.reset();
+      context.interpreter.reset();
+      for (Map.Entry<String, Object> input : inputs.entrySet()) {
+        Symbol name = Symbol.intern(input.getKey());
+        context.interpreter.globals.define(name, input.getValue());
+      }
+
+      RuntimeError error = null;
+      try {
+        context.interpreter.run(program.statements);
+      } catch (RuntimeError e) {
+        error = e;
+      }
+      context.out.flush();
+      return new Result(context.buffer.toString(StandardCharsets.UTF_8), error);
+    } finally {
+      idle.add(context);
+    }
+  }
+}
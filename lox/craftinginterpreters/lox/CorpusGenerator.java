@@ -0,0 +1,296 @@
+package craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// deterministic generator of valid, terminating Lox programs for stress
+// tests. the same seed, shape and size always give the same source.
+// programs only read variables they defined and only combine values of
+// the right type, so they run without runtime errors.
+class CorpusGenerator {
+  enum Shape {
+    DEEP_NESTING,       // `size` nested blocks / ifs / whiles
+    WIDE_BLOCKS,        // one block with `size` statements
+    LONG_EXPRESSIONS,   // expressions with `size` operands
+    HUGE_STRINGS,       // string literals totalling `size` characters
+    MANY_GLOBALS,       // `size` globals, then reads of random ones
+    MIXED               // about `size` statements of everything above
+  }
+
+  private final Random random;
+  private final StringBuilder out = new StringBuilder();
+  // variables visible at the current point, innermost scope last
+  private final List<List<String>> numbers = new ArrayList<>();
+  private final List<List<String>> strings = new ArrayList<>();
+  private int names = 0;
+  private int depth = 0;
+
+  CorpusGenerator(long seed) {
+    this.random = new Random(seed);
+  }
+
+  String generate(Shape shape, int size) {
+    out.setLength(0);
+    numbers.clear();
+    strings.clear();
+    names = 0;
+    depth = 0;
+    pushScope();
+    // something of each type is always in scope
+    out.append("var n0 = 1;\nvar s0 = \"s\";\n");
+    numbers.get(0).add("n0");
+    strings.get(0).add("s0");
+
+    switch (shape) {
+      case DEEP_NESTING: deepNesting(size); break;
+      case WIDE_BLOCKS: wideBlock(size); break;
+      case LONG_EXPRESSIONS: longExpressions(size); break;
+      case HUGE_STRINGS: hugeStrings(size); break;
+      case MANY_GLOBALS: manyGlobals(size); break;
+      case MIXED: mixed(size); break;
+    }
+    return out.toString();
+  }
+
+  // not indented, that alone would make the source quadratic in `depth`
+  private void deepNesting(int depth) {
+    for (int i = 0; i < depth; i++) {
+      switch (i % 3) {
+        case 0: out.append("{\n"); break;
+        case 1: out.append("if (").append(number()).append(" > -1) {\n"); break;
+        default: out.append("while (false) {\n"); break;
+      }
+      declareNumber();
+    }
+    for (int i = 0; i < depth; i++) out.append("}\n");
+  }
+
+  private void wideBlock(int statements) {
+    out.append("{\n");
+    pushScope();
+    depth++;
+    for (int i = 0; i < statements; i++) simpleStatement();
+    depth--;
+    popScope();
+    out.append("}\n");
+  }
+
+  private void longExpressions(int operands) {
+    // split in a few statements so one huge chain doesn't hide the rest
+    for (int chunk = 0; chunk < 4; chunk++) {
+      out.append("var ").append(newName()).append(" = ");
+      out.append(number());
+      for (int i = 1; i < operands / 4; i++) {
+        out.append(random.nextBoolean() ? " + " : " - ");
+        out.append(random.nextInt(4) == 0 ? "(" + number() + " * 2)" : number());
+      }
+      out.append(";\n");
+    }
+  }
+
+  private void hugeStrings(int characters) {
+    int remaining = characters;
+    while (remaining > 0) {
+      int length = Math.min(remaining, 1 + random.nextInt(1 << 16));
+      remaining -= length;
+      String name = newName();
+      out.append("var ").append(name).append(" = \"");
+      for (int i = 0; i < length; i++) {
+        out.append((char) ('a' + random.nextInt(26)));
+      }
+      // always s0, chaining the huge ones would make this quadratic itself
+      out.append("\" + s0;\n");
+      strings.get(strings.size() - 1).add(name);
+    }
+  }
+
+  private void manyGlobals(int count) {
+    for (int i = 0; i < count; i++) declareNumber();
+    for (int i = 0; i < count; i++) {
+      out.append(number()).append(" + ").append(number()).append(";\n");
+    }
+  }
+
+  private void mixed(int statements) {
+    for (int i = 0; i < statements; i++) statement();
+  }
+
+  // compound statements are rare enough that each statement expands to
+  // fewer than one nested statement on average, so `size` stays meaningful
+  private void statement() {
+    int choice = random.nextInt(20);
+    if (depth >= 8 || choice < 16) {
+      simpleStatement();
+    } else if (choice == 16) {
+      block();
+    } else if (choice == 17) {
+      ifStatement();
+    } else if (choice == 18) {
+      whileLoop();
+    } else {
+      forLoop();
+    }
+  }
+
+  private void simpleStatement() {
+    indent(depth);
+    switch (random.nextInt(6)) {
+      case 0: declareNumber(); break;
+      case 1: declareString(); break;
+      case 2:
+        String target = number();
+        out.append(target).append(" = ").append(target).append(" + ")
+                .append(arithmetic(3)).append(";\n");
+        break;
+      case 3:
+        String text = string();
+        out.append(text).append(" = ").append(string()).append(" + \"")
+                .append(random.nextInt(1000)).append("\";\n");
+        break;
+      case 4: out.append("print ").append(arithmetic(4)).append(";\n"); break;
+      default: out.append(arithmetic(6)).append(";\n"); break;
+    }
+  }
+
+  private void block() {
+    indent(depth);
+    out.append("{\n");
+    body(1 + random.nextInt(6));
+    indent(depth);
+    out.append("}\n");
+  }
+
+  private void ifStatement() {
+    indent(depth);
+    out.append("if (").append(condition()).append(") {\n");
+    body(1 + random.nextInt(4));
+    indent(depth);
+    if (random.nextBoolean()) {
+      out.append("} else {\n");
+      body(1 + random.nextInt(4));
+      indent(depth);
+    }
+    out.append("}\n");
+  }
+
+  // always bounded: the counter is only ever changed by the loop itself
+  private void whileLoop() {
+    String counter = newName();
+    indent(depth);
+    out.append("{\n");
+    pushScope();
+    depth++;
+    indent(depth);
+    out.append("var ").append(counter).append(" = 0;\n");
+    indent(depth);
+    out.append("while (").append(counter).append(" < ")
+            .append(1 + random.nextInt(5)).append(") {\n");
+    body(1 + random.nextInt(4));
+    indent(depth + 1);
+    out.append(counter).append(" = ").append(counter).append(" + 1;\n");
+    indent(depth);
+    out.append("}\n");
+    depth--;
+    popScope();
+    indent(depth);
+    out.append("}\n");
+  }
+
+  private void forLoop() {
+    String counter = newName();
+    indent(depth);
+    out.append("for (var ").append(counter).append(" = 0; ").append(counter)
+            .append(" < ").append(1 + random.nextInt(5)).append("; ")
+            .append(counter).append(" = ").append(counter).append(" + 1) {\n");
+    body(1 + random.nextInt(4));
+    indent(depth);
+    out.append("}\n");
+  }
+
+  private void body(int statements) {
+    pushScope();
+    depth++;
+    for (int i = 0; i < statements; i++) statement();
+    depth--;
+    popScope();
+  }
+
+  private void declareNumber() {
+    String name = newName();
+    out.append("var ").append(name).append(" = ").append(arithmetic(3))
+            .append(";\n");
+    numbers.get(numbers.size() - 1).add(name);
+  }
+
+  private void declareString() {
+    String name = newName();
+    out.append("var ").append(name).append(" = ").append(string())
+            .append(" + \"").append(name).append("\";\n");
+    strings.get(strings.size() - 1).add(name);
+  }
+
+  private String condition() {
+    String[] operators = {"<", "<=", ">", ">=", "==", "!="};
+    String condition = number() + " " +
+            operators[random.nextInt(operators.length)] + " " + arithmetic(2);
+    if (random.nextInt(4) == 0) condition += " and " + number() + " > 0";
+    return condition;
+  }
+
+  // only + - * so nothing blows up into infinities or NaN too quickly
+  private String arithmetic(int maxOperands) {
+    StringBuilder expr = new StringBuilder(operand());
+    int operands = 1 + random.nextInt(maxOperands);
+    for (int i = 1; i < operands; i++) {
+      expr.append(" ").append("+-*".charAt(random.nextInt(3))).append(" ")
+              .append(operand());
+    }
+    return expr.toString();
+  }
+
+  private String operand() {
+    switch (random.nextInt(4)) {
+      case 0: return Integer.toString(random.nextInt(100));
+      case 1: return "(" + number() + " - 1)";
+      default: return number();
+    }
+  }
+
+  private String number() {
+    return pick(numbers);
+  }
+
+  private String string() {
+    return pick(strings);
+  }
+
+  private String pick(List<List<String>> scopes) {
+    // prefer close scopes, like real code does
+    for (int i = scopes.size() - 1; i >= 0; i--) {
+      List<String> scope = scopes.get(i);
+      if (!scope.isEmpty() && (i == 0 || random.nextInt(3) != 0)) {
+        return scope.get(random.nextInt(scope.size()));
+      }
+    }
+    return scopes.get(0).get(0);
+  }
+
+  private String newName() {
+    return "v" + (++names);
+  }
+
+  private void pushScope() {
+    numbers.add(new ArrayList<>());
+    strings.add(new ArrayList<>());
+  }
+
+  private void popScope() {
+    numbers.remove(numbers.size() - 1);
+    strings.remove(strings.size() - 1);
+  }
+
+  private void indent(int level) {
+    for (int i = 0; i < level; i++) out.append("  ");
+  }
+}
@@ -0,0 +1,157 @@
+package craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+// statement and branch coverage for `jlox --coverage=<file>`. one bit per
+// Stmt.slot in a long[]. any number of CoverageInterpreters can share one
+// Coverage: a bit that's already set is just a plain read, setting it is
+// an atomic OR, so concurrent runs never lose hits.
+//
+// the report is plain text, one line per source line with statements on
+// it, plus the raw bitmap so reports from later runs of the same script
+// can be merged into it:
+//
+//   jlox-coverage 1
+//   source <crc32 of the script>
+//   slots <number of slots>
+//   bits <hex word> <hex word> ...
+//   <line> <statements run>/<statements> <branches taken>/<branches>
+class Coverage {
+  private static final VarHandle WORDS =
+          MethodHandles.arrayElementVarHandle(long[].class);
+
+  private List<Stmt> program = new ArrayList<>();
+  private long sourceHash;
+  private int slots = 0;
+  private long[] bits = new long[0];
+
+  // start covering a freshly parsed program, forgetting the previous one
+  void track(List<Stmt> program, String source) {
+    List<Stmt> all = new ArrayList<>();
+    for (Stmt stmt : program) collect(stmt, all);
+    int max = 0;
+    for (Stmt stmt : all) max = Math.max(max, stmt.slot + 2);
+
+    CRC32 crc = new CRC32();
+    crc.update(source.getBytes(StandardCharsets.UTF_8));
+
+    this.program = all;
+    this.sourceHash = crc.getValue();
+    this.slots = max + 1;
+    this.bits = new long[(slots + 63) >>> 6];
+  }
+
+  void hit(int slot) {
+    long[] words = bits;
+    int word = slot >>> 6;
+    long mask = 1L << slot;
+    if ((words[word] & mask) != 0) return;    // the common case, no atomics
+    WORDS.getAndBitwiseOr(words, word, mask);
+  }
+
+  private boolean isHit(int slot) {
+    return (bits[slot >>> 6] & (1L << slot)) != 0;
+  }
+
+  // write the report, merging in an existing one for the same script.
+  // the file is locked for the read-merge-write, so separate processes
+  // can share one report
+  void write(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      FileLock lock = channel.lock();
+      try {
+        ByteBuffer existing = ByteBuffer.allocate((int) channel.size());
+        while (existing.hasRemaining() && channel.read(existing) >= 0) {
+        }
+        merge(new String(existing.array(), StandardCharsets.UTF_8));
+
+        byte[] report = report().getBytes(StandardCharsets.UTF_8);
+        channel.truncate(0);
+        channel.position(0);
+        ByteBuffer out = ByteBuffer.wrap(report);
+        while (out.hasRemaining()) channel.write(out);
+      } finally {
+        lock.release();
+      }
+    }
+  }
+
+  // OR in the bits of an earlier report, if it's for the same source
+  private void merge(String report) {
+    long hash = -1;
+    int count = -1;
+    for (String line : report.split("\n")) {
+      if (line.startsWith("source ")) {
+        hash = Long.parseLong(line.substring(7).trim(), 16);
+      } else if (line.startsWith("slots ")) {
+        count = Integer.parseInt(line.substring(6).trim());
+      } else if (line.startsWith("bits ") && hash == sourceHash
+              && count == slots) {
+        String[] words = line.substring(5).trim().split(" ");
+        for (int i = 0; i < words.length && i < bits.length; i++) {
+          if (!words[i].isEmpty()) {
+            bits[i] |= Long.parseUnsignedLong(words[i], 16);
+          }
+        }
+      }
+    }
+  }
+
+  private String report() {
+    // line -> {statements, statements run, branches, branches taken}
+    Map<Integer, int[]> lines = new TreeMap<>();
+    for (Stmt stmt : program) {
+      int[] counts = lines.computeIfAbsent(stmt.line, line -> new int[4]);
+      counts[0]++;
+      if (isHit(stmt.slot)) counts[1]++;
+      if (stmt instanceof Stmt.If || stmt instanceof Stmt.While) {
+        counts[2] += 2;
+        if (isHit(stmt.slot + 1)) counts[3]++;
+        if (isHit(stmt.slot + 2)) counts[3]++;
+      }
+    }
+
+    StringBuilder builder = new StringBuilder();
+    builder.append("jlox-coverage 1\n");
+    builder.append("source ").append(Long.toHexString(sourceHash)).append('\n');
+    builder.append("slots ").append(slots).append('\n');
+    builder.append("bits");
+    for (long word : bits) builder.append(' ').append(Long.toHexString(word));
+    builder.append('\n');
+    for (Map.Entry<Integer, int[]> line : lines.entrySet()) {
+      int[] counts = line.getValue();
+      builder.append(line.getKey()).append(' ')
+              .append(counts[1]).append('/').append(counts[0]).append(' ')
+              .append(counts[3]).append('/').append(counts[2]).append('\n');
+    }
+    return builder.toString();
+  }
+
+  private static void collect(Stmt stmt, List<Stmt> all) {
+    if (stmt == null) return;
+    all.add(stmt);
+    if (stmt instanceof Stmt.Block) {
+      for (Stmt inner : ((Stmt.Block) stmt).statements) collect(inner, all);
+    } else if (stmt instanceof Stmt.If) {
+      collect(((Stmt.If) stmt).thenBranch, all);
+      collect(((Stmt.If) stmt).elseBranch, all);
+    } else if (stmt instanceof Stmt.While) {
+      collect(((Stmt.While) stmt).body, all);
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package craftinginterpreters.lox;
+
+import java.io.PrintStream;
+
+// the instrumented interpreter for `--coverage=<file>`, see Coverage. like
+// TracingInterpreter it only exists when asked for; per statement it costs
+// one bitmap read, plus an atomic OR the first time a slot is hit.
+class CoverageInterpreter extends Interpreter {
+  private final Coverage coverage;
+
+  CoverageInterpreter(PrintStream out, Budget budget, Coverage coverage) {
+    super(out, budget);
+    this.coverage = coverage;
+  }
+
+  @Override
+  void execute(Stmt stmt) throws RuntimeError {
+    coverage.hit(stmt.slot);
+    super.execute(stmt);
+  }
+
+  @Override
+  boolean test(Stmt stmt, Expr condition) throws RuntimeError {
+    boolean taken = super.test(stmt, condition);
+    coverage.hit(taken ? stmt.slot + 1 : stmt.slot + 2);
+    return taken;
+  }
+}
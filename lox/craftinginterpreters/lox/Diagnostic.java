@@ -0,0 +1,25 @@
+package craftinginterpreters.lox;
+
+// a lexical or syntax error, collected instead of printed on the spot
+class Diagnostic {
+  final int line;
+  final String where;   // e.g. " at 'foo'", empty when only the line is known
+  final String message;
+
+  Diagnostic(int line, String where, String message) {
+    this.line = line;
+    this.where = where;
+    this.message = message;
+  }
+
+  static Diagnostic at(Token token, String message) {
+    if (token.type == TokenType.EOF) {
+      return new Diagnostic(token.line, " at end", message);
+    }
+    return new Diagnostic(token.line, " at '" + token.lexeme + "'", message);
+  }
+
+  public String toString() {
+    return "[line " + line + "] Error " + where + ": " + message;
+  }
+}
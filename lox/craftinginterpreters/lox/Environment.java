@@ -2,7 +2,13 @@ package craftinginterpreters.lox;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
+// a scope, owned by the one interpreter thread that made it: block scopes,
+// and an interpreter's own globals even when they are chained onto a
+// SharedEnvironment. nothing here is safe to touch from another thread.
+// the only scope other threads may read and write is a SharedEnvironment,
+// which is always the outermost scope of a chain
 class Environment {
   Environment() {
     enclosing = null;
@@ -13,11 +19,11 @@ class Environment {
   }
 
   final Environment enclosing;
-  private final Map<String, Object> values = new HashMap<>();
+  private final Map<Symbol, Object> values = new HashMap<>();
 
   Object get(Token name) throws RuntimeError {
-    if (values.containsKey(name.lexeme)) {
-      return values.get(name.lexeme);
+    if (values.containsKey(name.symbol)) {
+      return values.get(name.symbol);
     }
 
     if (enclosing != null) return enclosing.get(name);
@@ -26,17 +32,35 @@ class Environment {
             "Undefined variable '" + name.lexeme + "'.");
   }
 
-  void assign(Token name, Object value) throws RuntimeError {
-    if (values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
-      return;
+  // the scope that defines `name`, so a read-modify-write only walks the
+  // chain once
+  Environment scopeOf(Token name) throws RuntimeError {
+    for (Environment scope = this; scope != null; scope = scope.enclosing) {
+      if (scope.has(name.symbol)) return scope;
     }
 
-    if (enclosing != null) {
-      enclosing.assign(name, value);
-      return;
+    throw new RuntimeError(name,
+            "Undefined variable '" + name.lexeme + "'.");
+  }
+
+  // defined directly in this scope
+  boolean has(Symbol name) {
+    return values.containsKey(name);
+  }
+
+  // no chain walk, for a scope that came from scopeOf()
+  Object getHere(Symbol name) {
+    return values.get(name);
+  }
+
+  // returns what it held before
+  Object assign(Token name, Object value) throws RuntimeError {
+    if (values.containsKey(name.symbol)) {
+      return values.put(name.symbol, value);
     }
 
+    if (enclosing != null) return enclosing.assign(name, value);
+
     throw new RuntimeError(name,
             "Undefined variable '" + name.lexeme + "'.");
   }
@@ -50,7 +74,30 @@ class Environment {
    * follow in their footsteps.
    * Scheme allows redefining variables at the top level."
    */
-  void define(String name, Object value) {
+  void define(Symbol name, Object value) {
     values.put(name, value);
   }
+
+  // sets `name` to `value` if it still holds `expected`, for a
+  // read-modify-write like Expr.Update. only the owning thread writes a
+  // plain scope, see above, so here it always does
+  boolean replace(Symbol name, Object expected, Object value) {
+    values.put(name, value);
+    return true;
+  }
+
+  // drop every variable in this scope, keeping the table's capacity
+  void clear() {
+    values.clear();
+  }
+
+  // every variable defined directly in this scope, for Snapshot
+  void forEach(BiConsumer<Symbol, Object> action) {
+    values.forEach(action);
+  }
+
+  // number of variables defined directly in this scope
+  int size() {
+    return values.size();
+  }
 }
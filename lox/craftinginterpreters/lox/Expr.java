@@ -1,13 +1,22 @@
 package craftinginterpreters.lox;
 
+import java.util.List;
+
 abstract class Expr {
   interface Visitor<R> {
     R visitAssignExpr(Assign expr) throws RuntimeError;
     R visitBinaryExpr(Binary expr) throws RuntimeError;
+    R visitCallExpr(Call expr) throws RuntimeError;
+    R visitCompareExpr(Compare expr) throws RuntimeError;
     R visitGroupingExpr(Grouping expr) throws RuntimeError;
+    R visitHoistedExpr(Hoisted expr) throws RuntimeError;
+    R visitIndexExpr(Index expr) throws RuntimeError;
+    R visitIndexSetExpr(IndexSet expr) throws RuntimeError;
+    R visitIndexUpdateExpr(IndexUpdate expr) throws RuntimeError;
     R visitLiteralExpr(Literal expr);
     R visitLogicalExpr(Logical expr) throws RuntimeError;
     R visitUnaryExpr(Unary expr) throws RuntimeError;
+    R visitUpdateExpr(Update expr) throws RuntimeError;
     R visitVariableExpr(Variable expr) throws RuntimeError;
   }
  static class Assign extends Expr {
@@ -40,6 +49,40 @@ abstract class Expr {
     final Token operator;
     final Expr right;
   }
+ static class Call extends Expr {
+    Call(Expr callee, Token paren, List<Expr> arguments) {
+      this.callee = callee;
+      this.paren = paren;
+      this.arguments = arguments;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) throws RuntimeError {
+      return visitor.visitCallExpr(this);
+    }
+
+    final Expr callee;
+    final Token paren;
+    final List<Expr> arguments;
+  }
+ static class Compare extends Expr {
+    Compare(Token left, Token operator, Token rightName, Object rightValue) {
+      this.left = left;
+      this.operator = operator;
+      this.rightName = rightName;
+      this.rightValue = rightValue;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) throws RuntimeError {
+      return visitor.visitCompareExpr(this);
+    }
+
+    final Token left;
+    final Token operator;
+    final Token rightName;
+    final Object rightValue;
+  }
  static class Grouping extends Expr {
     Grouping(Expr expression) {
       this.expression = expression;
@@ -52,6 +95,76 @@ abstract class Expr {
 
     final Expr expression;
   }
+ static class Hoisted extends Expr {
+    Hoisted(Expr expression, int index, int loop) {
+      this.expression = expression;
+      this.index = index;
+      this.loop = loop;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) throws RuntimeError {
+      return visitor.visitHoistedExpr(this);
+    }
+
+    final Expr expression;
+    final int index;
+    final int loop;
+  }
+ static class Index extends Expr {
+    Index(Expr object, Token bracket, Expr index) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) throws RuntimeError {
+      return visitor.visitIndexExpr(this);
+    }
+
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+  }
+ static class IndexSet extends Expr {
+    IndexSet(Expr object, Token bracket, Expr index, Expr value) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) throws RuntimeError {
+      return visitor.visitIndexSetExpr(this);
+    }
+
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+    final Expr value;
+  }
+ static class IndexUpdate extends Expr {
+    IndexUpdate(Expr object, Token bracket, Expr index, Token operator, Expr operand) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+      this.operator = operator;
+      this.operand = operand;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) throws RuntimeError {
+      return visitor.visitIndexUpdateExpr(this);
+    }
+
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+    final Token operator;
+    final Expr operand;
+  }
  static class Literal extends Expr {
     Literal(Object value) {
       this.value = value;
@@ -94,6 +207,24 @@ abstract class Expr {
     final Token operator;
     final Expr right;
   }
+ static class Update extends Expr {
+    Update(Token name, Token read, Token operator, Object operand) {
+      this.name = name;
+      this.read = read;
+      this.operator = operator;
+      this.operand = operand;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) throws RuntimeError {
+      return visitor.visitUpdateExpr(this);
+    }
+
+    final Token name;
+    final Token read;
+    final Token operator;
+    final Object operand;
+  }
  static class Variable extends Expr {
     Variable(Token name) {
       this.name = name;
@@ -108,4 +239,8 @@ abstract class Expr {
   }
 
   abstract <R> R accept(Visitor<R> visitor) throws RuntimeError;
+
+  // type feedback site of a binary operator, stamped by TypeFeedback.
+  // 0 when nothing is profiling it
+  int site;
 }
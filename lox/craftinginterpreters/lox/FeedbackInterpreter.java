@@ -0,0 +1,121 @@
+package craftinginterpreters.lox;
+
+import java.io.PrintStream;
+
+// the interpreter for `--feedback=<file>`, see TypeFeedback. a site whose
+// profile says "only ever two numbers" runs the operation TypeFeedback
+// picked for it, with no recording and no string checks, and arithmetic
+// sites under it hand their results up as a double instead of boxing each
+// one. anything else, including a guard that fails, records the operand
+// kinds and runs the generic operator, so a wrong or stale profile only
+// widens itself. branches are only counted
+class FeedbackInterpreter extends Interpreter {
+  private final TypeFeedback feedback;
+
+  FeedbackInterpreter(PrintStream out, Budget budget, TypeFeedback feedback) {
+    super(out, budget);
+    this.feedback = feedback;
+  }
+
+  @Override
+  public Object visitBinaryExpr(Expr.Binary expr) throws RuntimeError {
+    if (feedback.fast(expr.site) < TypeFeedback.MINUS) {
+      return super.visitBinaryExpr(expr);
+    }
+    try {
+      return number(expr);
+    } catch (Widened widened) {
+      return widened.value;
+    }
+  }
+
+  // an arithmetic site that has only seen numbers, unboxed. an operand
+  // that isn't a number throws Widened with its value, and from there up
+  // each site finishes generically with the operands it already has, so
+  // nothing is evaluated twice
+  private double number(Expr.Binary expr) throws RuntimeError {
+    // only the site itself widens its profile, and it can't be running
+    // inside its own operands: there are no functions to get back to it
+    int operation = feedback.fast(expr.site);
+    double left;
+    double right;
+    try {
+      left = operand(expr.left);
+    } catch (Widened widened) {
+      throw widen(expr, widened.value, expr.right.accept(this));
+    }
+    try {
+      right = operand(expr.right);
+    } catch (Widened widened) {
+      throw widen(expr, left, widened.value);
+    }
+    switch (operation) {
+      case TypeFeedback.MINUS: return left - right;
+      case TypeFeedback.PLUS: return left + right;
+      case TypeFeedback.SLASH: return left / right;
+      default: return left * right;     // STAR, the only one left
+    }
+  }
+
+  private double operand(Expr expr) throws RuntimeError {
+    while (expr instanceof Expr.Grouping) {
+      expr = ((Expr.Grouping) expr).expression;
+    }
+    if (expr instanceof Expr.Binary
+            && feedback.fast(((Expr.Binary) expr).site) >= TypeFeedback.MINUS) {
+      return number((Expr.Binary) expr);
+    }
+    Object value = expr.accept(this);
+    if (value instanceof Double) return (double) value;
+    throw new Widened(value);
+  }
+
+  private Widened widen(Expr.Binary expr, Object left, Object right)
+          throws RuntimeError {
+    feedback.operands(expr.site, left, right);
+    return new Widened(super.binary(expr.site, expr.operator, left, right));
+  }
+
+  @Override
+  Object binary(int site, Token operator, Object left, Object right)
+          throws RuntimeError {
+    int operation = feedback.fast(site);
+    if (operation != 0
+            && left instanceof Double && right instanceof Double) {
+      double a = (double) left;
+      double b = (double) right;
+      switch (operation) {
+        case TypeFeedback.GREATER: return a > b;
+        case TypeFeedback.GREATER_EQUAL: return a >= b;
+        case TypeFeedback.LESS: return a < b;
+        case TypeFeedback.LESS_EQUAL: return a <= b;
+        case TypeFeedback.MINUS: return a - b;
+        case TypeFeedback.PLUS: return a + b;
+        case TypeFeedback.SLASH: return a / b;
+        default: return a * b;
+      }
+    }
+    if (site != 0) feedback.operands(site, left, right);
+    return super.binary(site, operator, left, right);
+  }
+
+  @Override
+  boolean test(Stmt stmt, Expr condition) throws RuntimeError {
+    boolean taken = super.test(stmt, condition);
+    feedback.branch(stmt.slot, taken);
+    return taken;
+  }
+
+  // the value of an expression under a numeric site that turned out not
+  // to be a number. stackless, like RuntimeError
+  private static final class Widened extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    final transient Object value;
+
+    Widened(Object value) {
+      super(null, null, false, false);
+      this.value = value;
+    }
+  }
+}
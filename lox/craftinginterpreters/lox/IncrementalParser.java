@@ -0,0 +1,501 @@
+package craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static craftinginterpreters.lox.TokenType.*;
+
+// a source kept lexed and parsed across edits, for an editor. after
+// edit(offset, removed, inserted) the tokens, statements and diagnostics
+// are those a fresh Lexer and Parser would give the new source, except
+// that coverage slots stay unique but no longer count up from 1.
+//
+// lexing restarts just past the last token the edit can't have touched.
+// a token looks at most two characters past its end, `1.` before a digit,
+// so that's the last one ending two or more characters before the edit.
+// as soon as the Lexer starts a token where an old token started, past
+// the inserted text, it's back in step: the rest are the old tokens, with
+// their lines shifted.
+//
+// parsing works in declarations, the program's or those of one `{}`
+// block. a declaration depends on its own tokens and on the one after it,
+// which it may have peeked at for an `else`. the innermost block holding
+// every changed token has its declarations parsed again, from the first
+// one depending on a changed token, until one ends where an old one
+// started past the changes. the rest are reused as they are, and the
+// statements around the block are copied with the new block in place.
+// when its braces no longer match, or the new declarations have errors,
+// the next block out is tried, and last the program, whose declarations
+// just go on to the end. blocks with errors in them aren't tracked, an
+// edit near one reparses the program's declaration around it.
+//
+// lexical errors are rare enough that any edit made while there are some
+// lexes and parses everything again.
+//
+// tokens are lexed copying(), the ones kept across edits would otherwise
+// each hold on to the source they were first lexed from.
+class IncrementalParser {
+  private String source;
+  private final List<Token> tokens = new ArrayList<>();
+  // where each token starts in `source`, the EOF at its length
+  private int[] offsets;
+  private final List<Diagnostic> lexErrors = new ArrayList<>();
+
+  // the program's declarations, the token each starts at followed by the
+  // EOF's, and the diagnostics of each
+  private final List<Stmt> statements = new ArrayList<>();
+  private int[] starts;
+  private final List<List<Diagnostic>> errors = new ArrayList<>();
+  // every error-free block, see Parser.recordedBlock()
+  private final Map<Stmt.Block, int[]> blocks = new IdentityHashMap<>();
+  private int slots = 0;
+
+  // what the last edit did, for Benchmark
+  int relexed;      // tokens lexed
+  int reparsed;     // tokens parsed
+
+  IncrementalParser(String source) {
+    rebuild(source);
+  }
+
+  String source() {
+    return source;
+  }
+
+  List<Token> tokens() {
+    return tokens;
+  }
+
+  // a failed declaration is null, like in Parser.parse()
+  List<Stmt> statements() {
+    return statements;
+  }
+
+  List<Diagnostic> diagnostics() {
+    List<Diagnostic> all = new ArrayList<>(lexErrors);
+    for (List<Diagnostic> declaration : errors) all.addAll(declaration);
+    return all;
+  }
+
+  // replaces `removed` characters at `offset` with `inserted`
+  void edit(int offset, int removed, String inserted) {
+    if (offset < 0 || removed < 0 || offset + removed > source.length()) {
+      throw new IndexOutOfBoundsException("Edit at " + offset + " removing "
+              + removed + " of " + source.length() + " characters.");
+    }
+    String edited = source.substring(0, offset) + inserted
+            + source.substring(offset + removed);
+    if (!lexErrors.isEmpty()) {
+      rebuild(edited);
+      return;
+    }
+
+    // the first token that may have changed, and where lexing resumes
+    int last = tokens.size() - 1;     // the EOF
+    int from = 0;                     // the first ending at offset - 1 or on
+    int past = last;
+    while (from < past) {
+      int middle = (from + past) >>> 1;
+      if (end(middle) < offset - 1) {
+        from = middle + 1;
+      } else {
+        past = middle;
+      }
+    }
+    int position = from > 0 ? end(from - 1) : 0;
+    int line = from > 0 ? tokens.get(from - 1).line : 1;
+
+    int chars = inserted.length() - removed;
+    int unchanged = offset + inserted.length();
+    List<Diagnostic> found = new ArrayList<>();
+    Lexer lexer = new Lexer(edited, position, edited.length(), line, true,
+            found).copying();
+    List<Token> lexed = new ArrayList<>();
+    List<Integer> lexedOffsets = new ArrayList<>();
+    int to = last;      // old tokens from here on are kept
+    int lines;
+    for (;;) {
+      Token token = lexer.lexOne();
+      if (token == null) {
+        lines = lexer.line() - tokens.get(last).line;
+        break;
+      }
+      int start = lexer.tokenStart();
+      if (start >= unchanged) {
+        int old = Arrays.binarySearch(offsets, from, last, start - chars);
+        if (old >= 0) {
+          to = old;
+          lines = token.line - tokens.get(old).line;
+          break;
+        }
+      }
+      lexed.add(token);
+      lexedOffsets.add(start);
+    }
+    if (!found.isEmpty()) {
+      rebuild(edited);
+      return;
+    }
+    relexed = lexed.size();
+
+    // splice the new tokens in, moving the kept ones
+    int delta = lexed.size() - (to - from);
+    if (lines != 0) {
+      for (int i = to; i < tokens.size(); i++) tokens.get(i).line += lines;
+    }
+    if (delta == 0) {
+      for (int i = 0; i < lexed.size(); i++) {
+        tokens.set(from + i, lexed.get(i));
+        offsets[from + i] = lexedOffsets.get(i);
+      }
+      if (chars != 0) {
+        for (int i = to; i < offsets.length; i++) offsets[i] += chars;
+      }
+    } else {
+      tokens.subList(from, to).clear();
+      tokens.addAll(from, lexed);
+      int[] moved = new int[offsets.length + delta];
+      System.arraycopy(offsets, 0, moved, 0, from);
+      for (int i = 0; i < lexed.size(); i++) {
+        moved[from + i] = lexedOffsets.get(i);
+      }
+      for (int i = to; i < offsets.length; i++) {
+        moved[i + delta] = offsets[i] + chars;
+      }
+      offsets = moved;
+    }
+    source = edited;
+
+    reparse(from, to, delta, lines);
+  }
+
+  private int end(int token) {
+    return offsets[token] + tokens.get(token).lexeme.length();
+  }
+
+  private void rebuild(String edited) {
+    source = edited;
+    tokens.clear();
+    lexErrors.clear();
+    statements.clear();
+    errors.clear();
+    blocks.clear();
+    slots = 0;
+
+    Lexer lexer = new Lexer(source, lexErrors).copying();
+    List<Integer> found = new ArrayList<>();
+    for (Token token = lexer.lexOne(); token != null;
+         token = lexer.lexOne()) {
+      tokens.add(token);
+      found.add(lexer.tokenStart());
+    }
+    tokens.add(new Token(EOF, "", null, lexer.line()));
+    offsets = new int[tokens.size()];
+    for (int i = 0; i < found.size(); i++) offsets[i] = found.get(i);
+    offsets[found.size()] = source.length();
+    relexed = tokens.size();
+
+    starts = new int[] {tokens.size() - 1};
+    reparsed = parseProgram(0, 0, 1, tokens.size(), 0);
+  }
+
+  // old tokens [from, to) were replaced with `delta` more, and the ones
+  // after them moved `lines` lines down
+  private void reparse(int from, int to, int delta, int lines) {
+    // planned in old token positions: the program's declaration that
+    // depends on the first changed token, and the blocks in it holding
+    // every change, outermost first
+    int first = first(starts, from);
+    int resumable = atOrPast(starts, first + 1, to);
+    int begin = statements.isEmpty() ? 0 : starts[first];
+    List<Stmt> path = new ArrayList<>();
+    if (!statements.isEmpty() && errors.get(first).isEmpty()) {
+      enclosing(statements.get(first), from, to, path);
+    }
+    // {first, resumable, begin} for each block on the path
+    List<int[]> plans = new ArrayList<>();
+    for (Stmt stmt : path) {
+      int[] body = blocks.get(stmt);
+      if (body == null) {
+        plans.add(null);
+        continue;
+      }
+      int inner = first(body, from);
+      plans.add(new int[] {inner, atOrPast(body, inner + 1, to), body[inner]});
+    }
+
+    // everything past the changes moves by `delta` tokens
+    if (delta != 0) {
+      shift(starts, to, delta);
+      for (int[] body : blocks.values()) shift(body, to, delta);
+    }
+    int changed = to + delta;
+
+    for (int i = path.size() - 1; i >= 0; i--) {
+      if (plans.get(i) == null) continue;
+      Stmt.Block block = (Stmt.Block) path.get(i);
+      int[] plan = plans.get(i);
+      Stmt.Block parsed = reparseBlock(block, plan[0], plan[1], plan[2],
+              changed, lines);
+      if (parsed == null) continue;
+
+      // copy the statements around it, outwards
+      Stmt now = parsed;
+      for (int j = i - 1; j >= 0; j--) {
+        now = copy(path.get(j), path.get(j + 1), now, changed, lines);
+      }
+      statements.set(first, now);
+      for (int j = first + 1; j < statements.size(); j++) {
+        moveDown(j, lines);
+      }
+      return;
+    }
+
+    reparsed = parseProgram(first, begin, resumable, changed, lines);
+  }
+
+  // the first declaration depending on token `from`: the first followed by
+  // one starting at or past it, or by the end
+  private static int first(int[] starts, int from) {
+    return Math.max(atOrPast(starts, 1, from) - 1, 0);
+  }
+
+  // the first of `positions` from `index` on that is at or past `token`
+  private static int atOrPast(int[] positions, int index, int token) {
+    int past = positions.length;
+    while (index < past) {
+      int middle = (index + past) >>> 1;
+      if (positions[middle] < token) {
+        index = middle + 1;
+      } else {
+        past = middle;
+      }
+    }
+    return index;
+  }
+
+  private static void shift(int[] positions, int to, int delta) {
+    for (int i = 0; i < positions.length; i++) {
+      if (positions[i] >= to) positions[i] += delta;
+    }
+  }
+
+  // pushes on `path` the statements from `stmt` down to the innermost
+  // block holding old tokens [from, to), if there is one
+  private boolean enclosing(Stmt stmt, int from, int to, List<Stmt> path) {
+    if (stmt == null) return false;
+    int[] body = stmt instanceof Stmt.Block ? blocks.get(stmt) : null;
+    if (body != null
+            && (body[0] - 1 >= from || body[body.length - 1] < to)) {
+      return false;
+    }
+
+    path.add(stmt);
+    if (body != null) {
+      // only the declaration depending on `from` can hold it all
+      List<Stmt> inner = ((Stmt.Block) stmt).statements;
+      if (!inner.isEmpty()
+              && enclosing(inner.get(first(body, from)), from, to, path)) {
+        return true;
+      }
+    } else if (stmt instanceof Stmt.Block) {
+      for (Stmt inner : ((Stmt.Block) stmt).statements) {
+        if (enclosing(inner, from, to, path)) return true;
+      }
+    } else if (stmt instanceof Stmt.If) {
+      if (enclosing(((Stmt.If) stmt).thenBranch, from, to, path)
+              || enclosing(((Stmt.If) stmt).elseBranch, from, to, path)) {
+        return true;
+      }
+    } else if (stmt instanceof Stmt.While) {
+      if (enclosing(((Stmt.While) stmt).body, from, to, path)) return true;
+    }
+    if (body != null) return true;
+    path.remove(path.size() - 1);
+    return false;
+  }
+
+  // the block with its declarations from `first` on parsed again, from
+  // token `begin` up to the old one numbered `resumable` or later. null if
+  // that never lines up or they have errors
+  private Stmt.Block reparseBlock(Stmt.Block block, int first,
+                                  int resumable, int begin, int changed,
+                                  int lines) {
+    int[] body = blocks.get(block);
+    int close = body[body.length - 1];
+    List<Diagnostic> found = new ArrayList<>();
+    Map<Stmt.Block, int[]> recorded = new IdentityHashMap<>();
+    Parser parser = new Parser(tokens, found, begin, slots, recorded);
+    List<Stmt> parsed = new ArrayList<>();
+    List<Integer> parsedStarts = new ArrayList<>();
+    int resume;
+    for (;;) {
+      int position = parser.position();
+      if (position >= changed) {
+        resume = Arrays.binarySearch(body, resumable, body.length, position);
+        if (resume >= 0) break;
+        if (position > close) return null;
+      }
+      if (parser.atBlockEnd()) return null;     // the braces changed
+      parsedStarts.add(position);
+      parsed.add(parser.nextDeclaration());
+      if (!found.isEmpty()) return null;
+    }
+    slots = parser.slots();
+    reparsed = parser.position() - begin;
+
+    List<Stmt> old = block.statements;
+    List<Stmt> inner = new ArrayList<>(old.subList(0, first));
+    inner.addAll(parsed);
+    inner.addAll(old.subList(resume, old.size()));
+    int[] innerStarts = new int[inner.size() + 1];
+    System.arraycopy(body, 0, innerStarts, 0, first);
+    for (int i = 0; i < parsedStarts.size(); i++) {
+      innerStarts[first + i] = parsedStarts.get(i);
+    }
+    System.arraycopy(body, resume, innerStarts, first + parsed.size(),
+            body.length - resume);
+
+    for (Stmt replaced : old.subList(first, resume)) forget(replaced);
+    for (Stmt kept : old.subList(resume, old.size())) moveDown(kept, lines);
+    Stmt.Block now = new Stmt.Block(inner);
+    now.line = block.line;
+    now.slot = block.slot;
+    blocks.remove(block);
+    blocks.put(now, innerStarts);
+    blocks.putAll(recorded);
+    return now;
+  }
+
+  // `parent` with `child` swapped for `now`. what follows the change in
+  // it moves down `lines` lines
+  private Stmt copy(Stmt parent, Stmt child, Stmt now, int changed,
+                    int lines) {
+    Stmt copy;
+    if (parent instanceof Stmt.Block) {
+      List<Stmt> inner = new ArrayList<>(((Stmt.Block) parent).statements);
+      int index = 0;
+      while (inner.get(index) != child) index++;
+      inner.set(index, now);
+      copy = new Stmt.Block(inner);
+      int[] body = blocks.remove(parent);
+      if (body != null) {
+        blocks.put((Stmt.Block) copy, body);
+        for (int i = index + 1; i < inner.size(); i++) {
+          moveDown(inner.get(i), lines);
+        }
+      }
+      // else a desugared `for`, whose other statements come before its body
+    } else if (parent instanceof Stmt.If) {
+      Stmt.If stmt = (Stmt.If) parent;
+      if (stmt.thenBranch == child) {
+        copy = new Stmt.If(stmt.condition, now, stmt.elseBranch);
+        moveDown(stmt.elseBranch, lines);
+      } else {
+        copy = new Stmt.If(stmt.condition, stmt.thenBranch, now);
+      }
+    } else {
+      Stmt.While stmt = (Stmt.While) parent;
+      copy = new Stmt.While(stmt.condition, now);
+    }
+    copy.line = parent.line;
+    copy.slot = parent.slot;
+    return copy;
+  }
+
+  // the program's declarations from `first` on parsed again, starting at
+  // token `begin`, up to the old one numbered `resumable` or later.
+  // returns how many tokens that took
+  private int parseProgram(int first, int begin, int resumable, int changed,
+                           int lines) {
+    List<Diagnostic> found = new ArrayList<>();
+    Map<Stmt.Block, int[]> recorded = new IdentityHashMap<>();
+    Parser parser = new Parser(tokens, found, begin, slots, recorded);
+    List<Stmt> parsed = new ArrayList<>();
+    List<List<Diagnostic>> parsedErrors = new ArrayList<>();
+    List<Integer> parsedStarts = new ArrayList<>();
+    int resume = starts.length - 1;
+    for (;;) {
+      int position = parser.position();
+      if (position >= changed) {
+        int old = Arrays.binarySearch(starts, resumable, starts.length,
+                position);
+        if (old >= 0) {
+          resume = old;
+          break;
+        }
+      }
+      if (parser.atEnd()) break;
+      parsedStarts.add(position);
+      parsed.add(parser.nextDeclaration());
+      parsedErrors.add(new ArrayList<>(found));
+      // blocks of a declaration with errors are never looked at
+      if (found.isEmpty()) blocks.putAll(recorded);
+      if (!recorded.isEmpty()) recorded.clear();
+      found.clear();
+    }
+    slots = parser.slots();
+
+    for (Stmt replaced : statements.subList(first, resume)) forget(replaced);
+    statements.subList(first, resume).clear();
+    statements.addAll(first, parsed);
+    errors.subList(first, resume).clear();
+    errors.addAll(first, parsedErrors);
+    int[] moved = new int[statements.size() + 1];
+    System.arraycopy(starts, 0, moved, 0, first);
+    for (int i = 0; i < parsedStarts.size(); i++) {
+      moved[first + i] = parsedStarts.get(i);
+    }
+    System.arraycopy(starts, resume, moved, first + parsed.size(),
+            starts.length - resume);
+    starts = moved;
+    for (int i = first + parsed.size(); i < statements.size(); i++) {
+      moveDown(i, lines);
+    }
+    return parser.position() - begin;
+  }
+
+  // the program's declaration `index` and its diagnostics
+  private void moveDown(int index, int lines) {
+    if (lines == 0) return;
+    moveDown(statements.get(index), lines);
+    List<Diagnostic> old = errors.get(index);
+    for (int i = 0; i < old.size(); i++) {
+      Diagnostic error = old.get(i);
+      old.set(i, new Diagnostic(error.line + lines, error.where,
+              error.message));
+    }
+  }
+
+  // its tokens have moved already, this is for Stmt.line
+  private static void moveDown(Stmt stmt, int lines) {
+    if (stmt == null || lines == 0) return;
+    stmt.line += lines;
+    if (stmt instanceof Stmt.Block) {
+      for (Stmt inner : ((Stmt.Block) stmt).statements) {
+        moveDown(inner, lines);
+      }
+    } else if (stmt instanceof Stmt.If) {
+      moveDown(((Stmt.If) stmt).thenBranch, lines);
+      moveDown(((Stmt.If) stmt).elseBranch, lines);
+    } else if (stmt instanceof Stmt.While) {
+      moveDown(((Stmt.While) stmt).body, lines);
+    }
+  }
+
+  // drops the blocks of a statement that's gone
+  private void forget(Stmt stmt) {
+    if (stmt instanceof Stmt.Block) {
+      blocks.remove(stmt);
+      for (Stmt inner : ((Stmt.Block) stmt).statements) forget(inner);
+    } else if (stmt instanceof Stmt.If) {
+      forget(((Stmt.If) stmt).thenBranch);
+      forget(((Stmt.If) stmt).elseBranch);
+    } else if (stmt instanceof Stmt.While) {
+      forget(((Stmt.While) stmt).body);
+    }
+  }
+}
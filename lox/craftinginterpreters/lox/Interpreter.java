@@ -1,5 +1,10 @@
 package craftinginterpreters.lox;
 
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 class Interpreter implements Expr.Visitor<Object>,
@@ -7,18 +12,130 @@ class Interpreter implements Expr.Visitor<Object>,
   // post order traversal
   // each node evaluates its children before doing its own work
 
-  private Environment environment = new Environment();
+  // the top-level scope. on its own, or chained onto a SharedEnvironment
+  // whose variables every interpreter sharing it can read and assign
+  final Environment globals;
+  private Environment environment;
+  private final PrintStream out;  // where `print` writes
+
+  // execution budget, see Budget. `fuel` counts down on every statement and
+  // loop back-edge; only when it runs out do we look at the actual limits,
+  // so the hot path is one decrement and one branch.
+  private static final long CLOCK_CHECK_INTERVAL = 1 << 14;
+  private static final long ENVIRONMENT_ENTRY_BYTES = 64;
+  private static final long STRING_OVERHEAD_BYTES = 40;
+  private static final long ARRAY_OVERHEAD_BYTES = 24;
+  private final Budget budget;
+  private long fuel;
+  private long instructionsLeft;
+  private long deadline;          // System.nanoTime() to stop at, if timed
+  private long memoryUsed;
+
+  // values of Expr.Hoisted, see LoopInvariants. every execution of a
+  // `while` gets a fresh number from loopEntries, pushed on `loops` while
+  // it runs. a hoisted value is only reused while the loop it was hoisted
+  // out of is still in the execution it was computed in. Lox has no
+  // functions, so the stack of running loops is the static loop nesting
+  private Object[] hoisted = new Object[16];
+  private long[] hoistedIn = new long[16];
+  private long[] loops = new long[16];
+  private int loopDepth = 0;
+  private long loopEntries = 0;
+
+  // the statement being executed, published for the sampling Profiler.
+  // opaque stores are plain moves on common hardware but can't be optimized
+  // away, so the sampler thread always sees a recent value. a statement is
+  // stored once as it starts and never put back when it ends: whatever
+  // runs next stores itself, and a loop stores itself again at its
+  // back-edge for the time spent in its condition
+  private static final VarHandle CURRENT;
+  private Stmt current;
+  private boolean publishing = false;
+
+  static {
+    try {
+      CURRENT = MethodHandles.lookup()
+              .findVarHandle(Interpreter.class, "current", Stmt.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  Interpreter() {
+    this(System.out);
+  }
+
+  Interpreter(PrintStream out) {
+    this(out, Budget.UNLIMITED);
+  }
+
+  Interpreter(PrintStream out, Budget budget) {
+    this(out, budget, null);
+  }
+
+  // `var` at the top level still defines in this interpreter's own
+  // globals, a name only `shared` has is read and assigned there. the
+  // natives come from `shared` too
+  Interpreter(PrintStream out, Budget budget, SharedEnvironment shared) {
+    this.out = out;
+    this.budget = budget;
+    globals = shared == null ? new Environment() : new Environment(shared);
+    environment = globals;
+    if (shared == null) Natives.define(globals);
+  }
 
   void interpret(List<Stmt> statements) {
+    try {
+      run(statements);
+    } catch (RuntimeError error) {
+      Lox.runtimeError(error);
+    }
+  }
+
+  // like interpret(), but leaves reporting the error to the caller
+  void run(List<Stmt> statements) throws RuntimeError {
+    start();
     try {
       for (Stmt statement : statements) {
         execute(statement);
       }
-    } catch (RuntimeError error) {
-      Lox.runtimeError(error);
+    } finally {
+      // idle, or stopped by an error: nothing is running any more
+      if (publishing) CURRENT.setOpaque(this, null);
     }
   }
 
+  // a new run with a fresh budget, for callers like Pipeline that hand the
+  // statements to execute() one at a time
+  void start() {
+    resetBudget();
+    loopDepth = 0;      // an error may have left loops on the stack
+  }
+
+  // start publishing the current statement, see Profiler
+  void publishCurrentStatement() {
+    publishing = true;
+  }
+
+  // called from the sampler thread
+  Stmt currentStatement() {
+    return (Stmt) CURRENT.getOpaque(this);
+  }
+
+  // the scope being executed in, for TieredInterpreter to hand a running
+  // loop's variables over
+  Environment environment() {
+    return environment;
+  }
+
+  // forget every global from the last run so the interpreter can be reused.
+  // clears the map in place rather than allocating a new one
+  void reset() {
+    globals.clear();
+    if (globals.enclosing == null) Natives.define(globals);
+    environment = globals;
+  }
+
   @Override
   public Object visitLiteralExpr(Expr.Literal expr) {
     return expr.value;
@@ -40,13 +157,17 @@ class Interpreter implements Expr.Visitor<Object>,
   @Override
   public Object visitUnaryExpr(Expr.Unary expr) throws RuntimeError {
     Object right = evaluate(expr.right);
+    return unary(expr.operator, right);
+  }
 
-    switch (expr.operator.type) {
+  // the operator itself, shared with IrInterpreter
+  Object unary(Token operator, Object right) throws RuntimeError {
+    switch (operator.type) {
       case BANG:
         return !isTruthy(right);
       case MINUS:
         // cast to double dynamically typed lol
-        checkNumberOperand(expr.operator, right);
+        checkNumberOperand(operator, right);
         return -(double) right;
     }
     // unreachable
@@ -54,7 +175,7 @@ class Interpreter implements Expr.Visitor<Object>,
   }
 
 
-  private boolean isTruthy(Object object) {
+  static boolean isTruthy(Object object) {
     if (object == null) return false;
     if (object instanceof Boolean) return (boolean) object;
     return true;
@@ -64,10 +185,25 @@ class Interpreter implements Expr.Visitor<Object>,
     // handle null specifically
     if (a == null && b == null) return true;
     if (a == null) return false;
+    // a literal's slice and a String with the same text
+    if (a instanceof CharSequence && b instanceof CharSequence) {
+      return SourceSlice.sameText((CharSequence) a, (CharSequence) b);
+    }
     return a.equals(b);
   }
 
-  private String stringify(Object object) {
+  // a slice of the source is printed straight from it, not copied first.
+  // package-private for IrInterpreter
+  static void println(PrintStream out, Object value) {
+    if (value instanceof SourceSlice) {
+      ((SourceSlice) value).print(out);
+      out.println();
+    } else {
+      out.println(stringify(value));
+    }
+  }
+
+  static String stringify(Object object) {
     if (object == null) return "nil";
     if (object instanceof Double) {
       String text = object.toString();
@@ -88,10 +224,111 @@ class Interpreter implements Expr.Visitor<Object>,
     return expr.accept(this);
   }
 
-  private void execute(Stmt stmt) throws RuntimeError {
+  // package-private, like test(), so TracingInterpreter can hook in. while
+  // no subclass is loaded the JIT still sees a single implementation
+  void execute(Stmt stmt) throws RuntimeError {
+    if (--fuel < 0) refuel(stmt.line);
+    if (publishing) CURRENT.setOpaque(this, stmt);
     stmt.accept(this);
   }
 
+  private void resetBudget() {
+    instructionsLeft = budget.maxInstructions > 0
+            ? budget.maxInstructions : Long.MAX_VALUE;
+    deadline = budget.timeoutMillis > 0
+            ? System.nanoTime() + budget.timeoutMillis * 1_000_000 : 0;
+    // what an earlier run left in the globals is still held, and is given
+    // back when it's overwritten
+    memoryUsed = 0;
+    if (budget.maxMemoryBytes != 0) {
+      globals.forEach((name, value) -> memoryUsed += sizeOf(value));
+    }
+    fuel = nextFuel();
+  }
+
+  // hand out the next chunk of instructions. with a deadline the chunk is
+  // kept small so the clock still gets checked every so often
+  private long nextFuel() {
+    long chunk = instructionsLeft;
+    if (deadline != 0) chunk = Math.min(chunk, CLOCK_CHECK_INTERVAL);
+    instructionsLeft -= chunk;
+    return chunk;
+  }
+
+  private void refuel(int line) throws RuntimeError {
+    if (instructionsLeft == 0) {
+      throw new RuntimeError(line, "Instruction budget exceeded.");
+    }
+    if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+      throw new RuntimeError(line, "Time limit of " + budget.timeoutMillis +
+              " ms exceeded.");
+    }
+    fuel = nextFuel() - 1;  // the instruction that ran out of fuel
+  }
+
+  // approximate bookkeeping for the memory limit, of what's held in
+  // variables: an entry for each, plus the string or array in it, given
+  // back when the variable is overwritten or its block ends. a value held
+  // by two variables is counted twice, erring on the safe side. a new
+  // string or array that no variable holds yet only has to fit in what's
+  // left. builders are charged as they grow and never given back, they're
+  // shared rather than copied into each variable
+  private static long sizeOf(Object value) {
+    if (value instanceof String) {
+      return 2L * ((String) value).length() + STRING_OVERHEAD_BYTES;
+    }
+    if (value instanceof SourceSlice) return STRING_OVERHEAD_BYTES;
+    if (value instanceof Natives.Array) {
+      return 8L * ((Natives.Array) value).values.length + ARRAY_OVERHEAD_BYTES;
+    }
+    return 0;
+  }
+
+  private void fits(long bytes, int line) throws RuntimeError {
+    if (budget.maxMemoryBytes == 0) return;
+    if (memoryUsed + bytes > budget.maxMemoryBytes) {
+      throw new RuntimeError(line, "Memory limit of " +
+              budget.maxMemoryBytes + " bytes exceeded.");
+    }
+  }
+
+  // the same check for a native, before it allocates rather than after, so
+  // a huge request fails with a line number instead of taking the JVM down.
+  // with no limit set the heap itself is the limit
+  void reserve(long bytes) {
+    if (budget.maxMemoryBytes == 0) {
+      if (bytes > Runtime.getRuntime().maxMemory()) {
+        throw new NativeFunction.Failure("Out of memory.");
+      }
+    } else if (memoryUsed + bytes > budget.maxMemoryBytes) {
+      throw new NativeFunction.Failure("Memory limit of " +
+              budget.maxMemoryBytes + " bytes exceeded.");
+    }
+  }
+
+  // a variable that held `old` now holds `value`. package-private for
+  // IrInterpreter
+  void stored(Object old, Object value, int line) throws RuntimeError {
+    if (budget.maxMemoryBytes == 0) return;
+    replaced(old, value);
+    charge(0, line);
+  }
+
+  // the same, but left for the next charge to check
+  void replaced(Object old, Object value) {
+    if (budget.maxMemoryBytes == 0) return;
+    memoryUsed += sizeOf(value) - sizeOf(old);
+  }
+
+  private void charge(long bytes, int line) throws RuntimeError {
+    if (budget.maxMemoryBytes == 0) return;
+    memoryUsed += bytes;
+    if (memoryUsed > budget.maxMemoryBytes) {
+      throw new RuntimeError(line, "Memory limit of " +
+              budget.maxMemoryBytes + " bytes exceeded.");
+    }
+  }
+
   void executeBlock(List<Stmt> statements, Environment environment) throws RuntimeError {
     Environment previous = this.environment;
     try {
@@ -102,6 +339,11 @@ class Interpreter implements Expr.Visitor<Object>,
       }
     } finally {
       this.environment = previous;
+      // the block's variables are gone, give their memory back
+      if (budget.maxMemoryBytes != 0) {
+        memoryUsed -= environment.size() * ENVIRONMENT_ENTRY_BYTES;
+        environment.forEach((name, value) -> memoryUsed -= sizeOf(value));
+      }
     }
   }
 
@@ -115,41 +357,50 @@ class Interpreter implements Expr.Visitor<Object>,
   public Object visitBinaryExpr(Expr.Binary expr) throws RuntimeError {
     Object left = evaluate(expr.left);
     Object right = evaluate(expr.right);
+    return binary(expr.site, expr.operator, left, right);
+  }
 
-    switch (expr.operator.type) {
+  // the operator itself, shared with the fused nodes from Superinstructions.
+  // package-private so FeedbackInterpreter can profile and specialize it
+  Object binary(int site, Token operator, Object left, Object right)
+          throws RuntimeError {
+    switch (operator.type) {
       case GREATER:
-        checkNumberOperand(expr.operator, left, right);
+        checkNumberOperand(operator, left, right);
         return (double) left > (double) right;
       case GREATER_EQUAL:
-        checkNumberOperand(expr.operator, left, right);
+        checkNumberOperand(operator, left, right);
         return (double) left >= (double) right;
       case LESS:
-        checkNumberOperand(expr.operator, left, right);
+        checkNumberOperand(operator, left, right);
         return (double) left < (double) right;
       case LESS_EQUAL:
-        checkNumberOperand(expr.operator, left, right);
+        checkNumberOperand(operator, left, right);
         return (double) left <= (double) right;
       case BANG_EQUAL:
         return !isEqual(left, right);
       case EQUAL_EQUAL:
         return isEqual(left, right);
       case MINUS:
-        checkNumberOperand(expr.operator, left, right);
+        checkNumberOperand(operator, left, right);
         return (double) left - (double) right;
       case PLUS:
         if (left instanceof Double && right instanceof Double) {
           return (double) left + (double) right;
         }
-        if (left instanceof String && right instanceof String) {
-          return (String) left + (String) right;
+        if (left instanceof CharSequence && right instanceof CharSequence) {
+          String result = SourceSlice.concat((CharSequence) left,
+                  (CharSequence) right);
+          fits(sizeOf(result), operator.line);
+          return result;
         }
-        throw new RuntimeError(expr.operator,
+        throw new RuntimeError(operator,
                 "Operands must be two numbers or two strings.");
       case SLASH:
-        checkNumberOperand(expr.operator, left, right);
+        checkNumberOperand(operator, left, right);
         return (double) left / (double) right;
       case STAR:
-        checkNumberOperand(expr.operator, left, right);
+        checkNumberOperand(operator, left, right);
         return (double) left * (double) right;
     }
     // unreachable
@@ -166,6 +417,77 @@ class Interpreter implements Expr.Visitor<Object>,
     throw new RuntimeError(operator, "Operand must be a number.");
   }
 
+  @Override
+  public Object visitCallExpr(Expr.Call expr) throws RuntimeError {
+    Object callee = evaluate(expr.callee);
+    List<Expr> arguments = expr.arguments;
+    Object result;
+    try {
+      // the common arities skip the argument list
+      switch (arguments.size()) {
+        case 0:
+          result = callable(callee, expr.paren, 0).call(this);
+          break;
+        case 1: {
+          Object a = evaluate(arguments.get(0));
+          result = callable(callee, expr.paren, 1).call(this, a);
+          break;
+        }
+        case 2: {
+          Object a = evaluate(arguments.get(0));
+          Object b = evaluate(arguments.get(1));
+          result = callable(callee, expr.paren, 2).call(this, a, b);
+          break;
+        }
+        case 3: {
+          Object a = evaluate(arguments.get(0));
+          Object b = evaluate(arguments.get(1));
+          Object c = evaluate(arguments.get(2));
+          result = callable(callee, expr.paren, 3).call(this, a, b, c);
+          break;
+        }
+        default: {
+          List<Object> values = new ArrayList<>(arguments.size());
+          for (Expr argument : arguments) values.add(evaluate(argument));
+          result = callable(callee, expr.paren, values.size())
+                  .call(this, values);
+          break;
+        }
+      }
+    } catch (NativeFunction.Failure failure) {
+      throw new RuntimeError(expr.paren, failure.getMessage());
+    }
+    return called(result, expr.paren);
+  }
+
+  // checked after the arguments are evaluated, so their errors come first.
+  // package-private, like called(), for IrInterpreter
+  LoxCallable callable(Object callee, Token paren, int arguments)
+          throws RuntimeError {
+    if (!(callee instanceof LoxCallable)) {
+      throw new RuntimeError(paren, "Can only call functions.");
+    }
+    LoxCallable function = (LoxCallable) callee;
+    if (arguments != function.arity()) {
+      throw new RuntimeError(paren, "Expected " + function.arity() +
+              " arguments but got " + arguments + ".");
+    }
+    return function;
+  }
+
+  // strings and arrays made by natives have to fit like concatenations,
+  // a builder's growth is charged as it happens
+  Object called(Object result, Token paren) throws RuntimeError {
+    if (result instanceof Natives.Builder) {
+      Natives.Builder builder = (Natives.Builder) result;
+      charge(2L * (builder.text.length() - builder.charged), paren.line);
+      builder.charged = builder.text.length();
+    } else {
+      fits(sizeOf(result), paren.line);
+    }
+    return result;
+  }
+
   @Override
   public Void visitExpressionStmt(Stmt.Expression stmt) throws RuntimeError {
     evaluate(stmt.expression);
@@ -174,7 +496,7 @@ class Interpreter implements Expr.Visitor<Object>,
 
   @Override
   public Void visitIfStmt(Stmt.If stmt) throws RuntimeError {
-    if (isTruthy(evaluate(stmt.condition))) {
+    if (test(stmt, stmt.condition)) {
       execute(stmt.thenBranch);
     } else if (stmt.elseBranch != null) {
       execute(stmt.elseBranch);
@@ -185,7 +507,7 @@ class Interpreter implements Expr.Visitor<Object>,
   @Override
   public Void visitPrintStmt(Stmt.Print stmt) throws RuntimeError {
     Object value = evaluate(stmt.expression);
-    System.out.println(stringify(value));
+    println(out, value);
     return null;
   }
 
@@ -196,27 +518,197 @@ class Interpreter implements Expr.Visitor<Object>,
       value = evaluate(stmt.initializer);
     }
 
-    environment.define(stmt.name.lexeme, value);
+    define(environment, stmt.name.symbol, value, stmt.line);
     return null;
   }
 
+  // package-private for IrInterpreter
+  void define(Environment scope, Symbol name, Object value, int line)
+          throws RuntimeError {
+    if (budget.maxMemoryBytes != 0) {
+      // a `var` again in the same scope reuses the entry
+      if (scope.has(name)) {
+        stored(scope.getHere(name), value, line);
+      } else {
+        charge(ENVIRONMENT_ENTRY_BYTES + sizeOf(value), line);
+      }
+    }
+    scope.define(name, value);
+  }
+
+  // the branch decision of an `if` or one `while` iteration
+  boolean test(Stmt stmt, Expr condition) throws RuntimeError {
+    return isTruthy(evaluate(condition));
+  }
+
   @Override
   public Void visitWhileStmt(Stmt.While stmt) throws RuntimeError {
-    while (isTruthy(evaluate(stmt.condition))) {
+    if (loopDepth == loops.length) {
+      loops = Arrays.copyOf(loops, loopDepth * 2);
+    }
+    loops[loopDepth++] = ++loopEntries;
+    while (test(stmt, stmt.condition)) {
       execute(stmt.body);
+      if (--fuel < 0) refuel(stmt.line);  // back-edge
+      if (publishing) CURRENT.setOpaque(this, stmt);
     }
+    loopDepth--;
     return null;
   }
 
+  @Override
+  public Object visitHoistedExpr(Expr.Hoisted expr) throws RuntimeError {
+    int index = expr.index;
+    if (index >= hoisted.length) {
+      int length = Math.max(index + 1, hoisted.length * 2);
+      hoisted = Arrays.copyOf(hoisted, length);
+      hoistedIn = Arrays.copyOf(hoistedIn, length);
+    }
+    long entry = loops[expr.loop];
+    if (hoistedIn[index] == entry) return hoisted[index];
+
+    // first time in this run of the loop, and where it always was
+    Object value = evaluate(expr.expression);
+    hoisted[index] = value;
+    hoistedIn[index] = entry;
+    return value;
+  }
+
   @Override
   public Object visitAssignExpr(Expr.Assign expr) throws RuntimeError {
     Object value = evaluate(expr.value);
-    environment.assign(expr.name, value);
+    Object old = environment.assign(expr.name, value);
+    stored(old, value, expr.name.line);
     return value;
   }
 
+  @Override
+  public Object visitIndexExpr(Expr.Index expr) throws RuntimeError {
+    Object object = evaluate(expr.object);
+    Object index = evaluate(expr.index);
+    return element(object, index, expr.bracket);
+  }
+
+  @Override
+  public Object visitIndexSetExpr(Expr.IndexSet expr) throws RuntimeError {
+    Object object = evaluate(expr.object);
+    Object index = evaluate(expr.index);
+    Object value = evaluate(expr.value);
+    setElement(object, index, value, expr.bracket);
+    return value;
+  }
+
+  // `a[i] = a[i] op x;`, from Superinstructions. the element is read
+  // before the operand runs, like the unfused read was, and never boxed.
+  // nothing reads the value of the statement, so it's nil
+  @Override
+  public Object visitIndexUpdateExpr(Expr.IndexUpdate expr)
+          throws RuntimeError {
+    Object object = evaluate(expr.object);
+    Object index = evaluate(expr.index);
+    double[] values = elements(object, expr.bracket);
+    int slot = slot(values, index, expr.bracket);
+    double old = values[slot];
+    Object operand = evaluate(expr.operand);
+    values[slot] = arithmetic(expr.operator, old, operand);
+    return null;
+  }
+
+  // the same for IrInterpreter, which only fuses an operand that can't
+  // touch the array
+  void updateElement(Object object, Object index, Token bracket,
+                     Token operator, Object operand) throws RuntimeError {
+    double[] values = elements(object, bracket);
+    int slot = slot(values, index, bracket);
+    values[slot] = arithmetic(operator, values[slot], operand);
+  }
+
+  private double arithmetic(Token operator, double left, Object right)
+          throws RuntimeError {
+    if (!(right instanceof Double)) {
+      // a number and anything else: the operator's own error
+      binary(0, operator, left, right);
+    }
+    double number = (double) right;
+    switch (operator.type) {
+      case MINUS: return left - number;
+      case PLUS: return left + number;
+      case SLASH: return left / number;
+      default: return left * number;    // STAR, the only one left
+    }
+  }
+
+  // package-private, like callable(), for IrInterpreter. the element is
+  // boxed only here, on its way out to a Lox value
+  static Object element(Object object, Object index, Token bracket)
+          throws RuntimeError {
+    double[] values = elements(object, bracket);
+    return values[slot(values, index, bracket)];
+  }
+
+  static void setElement(Object object, Object index, Object value,
+                         Token bracket) throws RuntimeError {
+    double[] values = elements(object, bracket);
+    int slot = slot(values, index, bracket);
+    if (!(value instanceof Double)) {
+      throw new RuntimeError(bracket, "Array elements must be numbers.");
+    }
+    values[slot] = (double) value;
+  }
+
+  private static double[] elements(Object object, Token bracket)
+          throws RuntimeError {
+    if (object instanceof Natives.Array) return ((Natives.Array) object).values;
+    throw new RuntimeError(bracket, "Only arrays can be indexed.");
+  }
+
+  private static int slot(double[] values, Object index, Token bracket)
+          throws RuntimeError {
+    if (!(index instanceof Double)) {
+      throw new RuntimeError(bracket, "Array index must be a number.");
+    }
+    double number = (double) index;
+    if (number != Math.rint(number)) {
+      throw new RuntimeError(bracket, "Array index must be a whole number.");
+    }
+    if (number < 0 || number >= values.length) {
+      throw new RuntimeError(bracket, "Array index " + stringify(index) +
+              " out of bounds for length " + values.length + ".");
+    }
+    return (int) number;
+  }
+
   @Override
   public Object visitVariableExpr(Expr.Variable expr) throws RuntimeError {
     return environment.get(expr.name);
   }
+
+  @Override
+  public Object visitCompareExpr(Expr.Compare expr) throws RuntimeError {
+    Object left = environment.get(expr.left);
+    Object right = expr.rightName != null
+            ? environment.get(expr.rightName) : expr.rightValue;
+    return binary(expr.site, expr.operator, left, right);
+  }
+
+  @Override
+  public Object visitUpdateExpr(Expr.Update expr) throws RuntimeError {
+    // one walk up the chain for both the read and the write. in a
+    // SharedEnvironment another interpreter may get in between, then it's
+    // done again on the newer value so no update is lost. a retry runs
+    // the operator as site 0 so it isn't profiled twice, and memory is
+    // only charged for the value that was stored. the lookup is the read's,
+    // an undefined variable is reported where `x` was read, as unfused
+    Environment scope = environment.scopeOf(expr.read);
+    int site = expr.site;
+    for (;;) {
+      Object old = scope.getHere(expr.name.symbol);
+      Object value = binary(site, expr.operator, old, expr.operand);
+      if (scope.replace(expr.name.symbol, old, value)) {
+        stored(old, value, expr.name.line);
+        return value;
+      }
+      site = 0;
+    }
+  }
 }
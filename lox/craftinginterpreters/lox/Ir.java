@@ -0,0 +1,185 @@
+package craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// a script as a control-flow graph, see IrBuilder. basic blocks of
+// straight-line instructions over numbered registers, each block ending in
+// a jump, a two-way branch or the end of the script. block locals live in
+// registers, globals stay in the Environment. IrOptimizer rewrites the
+// graph in place, IrInterpreter runs it.
+class Ir {
+  // instructions, `name` is the Token in `token`
+  static final int CONST = 0;           // r[dst] = value
+  static final int MOVE = 1;            // r[dst] = r[a]
+  static final int GET_GLOBAL = 2;      // r[dst] = name
+  static final int SET_GLOBAL = 3;      // name = r[a], which must exist
+  static final int DEFINE_GLOBAL = 4;   // var name = r[a]
+  static final int BINARY = 5;          // r[dst] = r[a] token r[b]
+  static final int UNARY = 6;           // r[dst] = token r[a]
+  static final int CALL = 7;            // r[dst] = r[a](r[args]...)
+  static final int PRINT = 8;           // print r[a]
+  static final int INDEX_GET = 9;       // r[dst] = r[a][r[b]]
+  static final int INDEX_SET = 10;      // r[a][r[b]] = r[args[0]]
+  // r[a][r[b]] = r[a][r[b]] token r[args[0]], `value` is the bracket
+  static final int INDEX_UPDATE = 11;
+
+  // block exits
+  static final int END = 0;
+  static final int JUMP = 1;            // to target
+  static final int BRANCH = 2;          // r[condition] ? target : otherwise
+
+  static class Instr {
+    int op;
+    int dst = -1;
+    int a = -1;
+    int b = -1;
+    int[] args;
+    Token token;
+    Object value;
+
+    Instr(int op) {
+      this.op = op;
+    }
+
+    // writes a register
+    boolean hasResult() {
+      return dst >= 0;
+    }
+
+    // can't fail and does nothing but write its register
+    boolean isPure() {
+      switch (op) {
+        case CONST:
+        case MOVE:
+          return true;
+        case BINARY:
+          return token.type == TokenType.EQUAL_EQUAL
+                  || token.type == TokenType.BANG_EQUAL;
+        case UNARY:
+          return token.type == TokenType.BANG;
+        default:
+          return false;
+      }
+    }
+  }
+
+  static class Block {
+    int id;
+    final List<Instr> code = new ArrayList<>();
+    int exit = END;
+    int condition = -1;
+    Block target;
+    Block otherwise;
+
+    Block(int id) {
+      this.id = id;
+    }
+  }
+
+  final List<Block> blocks = new ArrayList<>();   // entry first
+  int registers = 0;
+  // for a single loop, see IrBuilder.lowerLoop(): variables from outside
+  // it that live in registers while it runs, loaded from the Environment
+  // on entry and stored back when it ends or fails
+  final Map<Token, Integer> imports = new LinkedHashMap<>();
+
+  Block newBlock() {
+    Block block = new Block(blocks.size());
+    blocks.add(block);
+    return block;
+  }
+
+  int newRegister() {
+    return registers++;
+  }
+
+  int instructions() {
+    int count = 0;
+    for (Block block : blocks) count += block.code.size();
+    return count;
+  }
+
+  // one instruction per line, for `jlox --print-ir`
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (Block block : blocks) {
+      builder.append('b').append(block.id).append(":\n");
+      for (Instr instr : block.code) {
+        builder.append("  ");
+        if (instr.hasResult()) {
+          builder.append('r').append(instr.dst).append(" = ");
+        }
+        switch (instr.op) {
+          case CONST:
+            builder.append(instr.value instanceof CharSequence
+                    ? "\"" + instr.value + "\""
+                    : Interpreter.stringify(instr.value));
+            break;
+          case MOVE:
+            builder.append('r').append(instr.a);
+            break;
+          case GET_GLOBAL:
+            builder.append(instr.token.lexeme);
+            break;
+          case SET_GLOBAL:
+            builder.append(instr.token.lexeme).append(" = r").append(instr.a);
+            break;
+          case DEFINE_GLOBAL:
+            builder.append("var ").append(instr.token.lexeme)
+                    .append(" = r").append(instr.a);
+            break;
+          case BINARY:
+            builder.append('r').append(instr.a).append(' ')
+                    .append(instr.token.lexeme).append(" r").append(instr.b);
+            break;
+          case UNARY:
+            builder.append(instr.token.lexeme).append('r').append(instr.a);
+            break;
+          case CALL:
+            builder.append('r').append(instr.a).append('(');
+            for (int i = 0; i < instr.args.length; i++) {
+              if (i > 0) builder.append(", ");
+              builder.append('r').append(instr.args[i]);
+            }
+            builder.append(')');
+            break;
+          case PRINT:
+            builder.append("print r").append(instr.a);
+            break;
+          case INDEX_GET:
+            builder.append('r').append(instr.a).append("[r").append(instr.b)
+                    .append(']');
+            break;
+          case INDEX_SET:
+            builder.append('r').append(instr.a).append("[r").append(instr.b)
+                    .append("] = r").append(instr.args[0]);
+            break;
+          case INDEX_UPDATE:
+            builder.append('r').append(instr.a).append("[r").append(instr.b)
+                    .append("] ").append(instr.token.lexeme).append("= r")
+                    .append(instr.args[0]);
+            break;
+        }
+        builder.append('\n');
+      }
+      switch (block.exit) {
+        case END:
+          builder.append("  end\n");
+          break;
+        case JUMP:
+          builder.append("  jump b").append(block.target.id).append('\n');
+          break;
+        case BRANCH:
+          builder.append("  branch r").append(block.condition)
+                  .append(" ? b").append(block.target.id)
+                  .append(" : b").append(block.otherwise.id).append('\n');
+          break;
+      }
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,371 @@
+package craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// lowers the AST into an Ir. every expression gets a fresh register for
+// its value. `if`, `while`, `and` and `or` become branches between blocks.
+//
+// Lox has no functions, so a name always means the same variable: the
+// innermost enclosing block that declared it before this point, or else a
+// global. each local declaration gets its own register and the lookup is
+// done here, once. globals are still looked up by name at runtime, because
+// that's where "Undefined variable" comes from and the REPL keeps them
+// between runs.
+class IrBuilder implements Stmt.Visitor<Void>, Expr.Visitor<Integer> {
+  static Ir lower(List<Stmt> statements) {
+    IrBuilder builder = new IrBuilder();
+    for (Stmt statement : statements) builder.lower(statement);
+    return builder.ir;
+  }
+
+  // one `while`, entered at its condition and ending when that's false.
+  // every variable declared outside the loop gets a register too, listed
+  // in Ir.imports: nothing but the loop can touch them while it runs, so
+  // they're loaded from the Environment once, see TieredInterpreter
+  static Ir lowerLoop(Stmt.While loop) {
+    IrBuilder builder = new IrBuilder();
+    builder.imports = new HashMap<>();
+    builder.lower(loop);
+    return builder.ir;
+  }
+
+  private final Ir ir = new Ir();
+  private Ir.Block current = ir.newBlock();
+  // innermost block last, empty at the top level
+  private final List<Map<Symbol, Integer>> scopes = new ArrayList<>();
+  // outer variables of a loop by name, null lowering a whole script
+  private Map<Symbol, Integer> imports = null;
+
+  private void lower(Stmt stmt) {
+    try {
+      stmt.accept(this);
+    } catch (RuntimeError error) {
+      // accept() is declared to throw for the interpreter's sake
+      throw new AssertionError(error);
+    }
+  }
+
+  private int lower(Expr expr) {
+    try {
+      return expr.accept(this);
+    } catch (RuntimeError error) {
+      throw new AssertionError(error);
+    }
+  }
+
+  private Ir.Instr emit(int op) {
+    Ir.Instr instr = new Ir.Instr(op);
+    current.code.add(instr);
+    return instr;
+  }
+
+  private int constant(Object value) {
+    Ir.Instr instr = emit(Ir.CONST);
+    instr.dst = ir.newRegister();
+    instr.value = value;
+    return instr.dst;
+  }
+
+  private void move(int dst, int src) {
+    Ir.Instr instr = emit(Ir.MOVE);
+    instr.dst = dst;
+    instr.a = src;
+  }
+
+  private int binary(Token operator, int left, int right) {
+    Ir.Instr instr = emit(Ir.BINARY);
+    instr.dst = ir.newRegister();
+    instr.a = left;
+    instr.b = right;
+    instr.token = operator;
+    return instr.dst;
+  }
+
+  private void jump(Ir.Block target) {
+    current.exit = Ir.JUMP;
+    current.target = target;
+  }
+
+  private void branch(int condition, Ir.Block target, Ir.Block otherwise) {
+    current.exit = Ir.BRANCH;
+    current.condition = condition;
+    current.target = target;
+    current.otherwise = otherwise;
+  }
+
+  // the register of the local `name`, or -1 for a global
+  private int local(Token name) {
+    for (int i = scopes.size() - 1; i >= 0; i--) {
+      Integer register = scopes.get(i).get(name.symbol);
+      if (register != null) return register;
+    }
+    if (imports == null) return -1;
+    return imports.computeIfAbsent(name.symbol, symbol -> {
+      int register = ir.newRegister();
+      ir.imports.put(name, register);
+      return register;
+    });
+  }
+
+  // always a copy: `a + (a = 1)` must add the old `a`. IrOptimizer drops
+  // the copies that turn out not to matter
+  private int read(Token name) {
+    int local = local(name);
+    int dst = ir.newRegister();
+    if (local >= 0) {
+      move(dst, local);
+    } else {
+      Ir.Instr instr = emit(Ir.GET_GLOBAL);
+      instr.dst = dst;
+      instr.token = name;
+    }
+    return dst;
+  }
+
+  private void write(Token name, int value) {
+    int local = local(name);
+    if (local >= 0) {
+      move(local, value);
+    } else {
+      Ir.Instr instr = emit(Ir.SET_GLOBAL);
+      instr.a = value;
+      instr.token = name;
+    }
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    scopes.add(new HashMap<>());
+    for (Stmt statement : stmt.statements) lower(statement);
+    scopes.remove(scopes.size() - 1);
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    lower(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    int condition = lower(stmt.condition);
+    Ir.Block then = ir.newBlock();
+    Ir.Block otherwise = stmt.elseBranch != null ? ir.newBlock() : null;
+    Ir.Block after = ir.newBlock();
+    branch(condition, then, otherwise != null ? otherwise : after);
+
+    current = then;
+    lower(stmt.thenBranch);
+    jump(after);
+    if (otherwise != null) {
+      current = otherwise;
+      lower(stmt.elseBranch);
+      jump(after);
+    }
+    current = after;
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    int value = lower(stmt.expression);
+    emit(Ir.PRINT).a = value;
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    // the initializer still sees an outer variable of the same name
+    int value = stmt.initializer != null
+            ? lower(stmt.initializer) : constant(null);
+    if (scopes.isEmpty()) {
+      Ir.Instr instr = emit(Ir.DEFINE_GLOBAL);
+      instr.a = value;
+      instr.token = stmt.name;
+    } else {
+      int register = ir.newRegister();
+      move(register, value);
+      scopes.get(scopes.size() - 1).put(stmt.name.symbol, register);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    Ir.Block header = ir.newBlock();
+    jump(header);
+    current = header;
+    int condition = lower(stmt.condition);
+    Ir.Block body = ir.newBlock();
+    Ir.Block after = ir.newBlock();
+    branch(condition, body, after);
+
+    current = body;
+    lower(stmt.body);
+    jump(header);
+    current = after;
+    return null;
+  }
+
+  @Override
+  public Integer visitAssignExpr(Expr.Assign expr) {
+    int value = lower(expr.value);
+    write(expr.name, value);
+    return value;
+  }
+
+  @Override
+  public Integer visitBinaryExpr(Expr.Binary expr) {
+    int left = lower(expr.left);
+    int right = lower(expr.right);
+    return binary(expr.operator, left, right);
+  }
+
+  @Override
+  public Integer visitCallExpr(Expr.Call expr) {
+    int callee = lower(expr.callee);
+    int[] arguments = new int[expr.arguments.size()];
+    for (int i = 0; i < arguments.length; i++) {
+      arguments[i] = lower(expr.arguments.get(i));
+    }
+    Ir.Instr instr = emit(Ir.CALL);
+    instr.dst = ir.newRegister();
+    instr.a = callee;
+    instr.args = arguments;
+    instr.token = expr.paren;
+    return instr.dst;
+  }
+
+  @Override
+  public Integer visitCompareExpr(Expr.Compare expr) {
+    int left = read(expr.left);
+    int right = expr.rightName != null
+            ? read(expr.rightName) : constant(expr.rightValue);
+    return binary(expr.operator, left, right);
+  }
+
+  @Override
+  public Integer visitGroupingExpr(Expr.Grouping expr) {
+    return lower(expr.expression);
+  }
+
+  // the graph has no notion of a loop execution to cache in, so the
+  // expression is simply computed where it is
+  @Override
+  public Integer visitHoistedExpr(Expr.Hoisted expr) {
+    return lower(expr.expression);
+  }
+
+  @Override
+  public Integer visitIndexExpr(Expr.Index expr) {
+    int object = lower(expr.object);
+    int index = lower(expr.index);
+    Ir.Instr instr = emit(Ir.INDEX_GET);
+    instr.dst = ir.newRegister();
+    instr.a = object;
+    instr.b = index;
+    instr.token = expr.bracket;
+    return instr.dst;
+  }
+
+  @Override
+  public Integer visitIndexSetExpr(Expr.IndexSet expr) {
+    int object = lower(expr.object);
+    int index = lower(expr.index);
+    int value = lower(expr.value);
+    Ir.Instr instr = emit(Ir.INDEX_SET);
+    instr.a = object;
+    instr.b = index;
+    instr.args = new int[] {value};
+    instr.token = expr.bracket;
+    return value;
+  }
+
+  // one instruction when the operand is a constant or a local: those
+  // can't fail or write anything, so reading the element after them is
+  // the same as before. anything else is lowered as the read, the
+  // operator and the write it was fused from
+  @Override
+  public Integer visitIndexUpdateExpr(Expr.IndexUpdate expr) {
+    int object = lower(expr.object);
+    int index = lower(expr.index);
+    if (expr.operand instanceof Expr.Literal
+            || (expr.operand instanceof Expr.Variable
+                && local(((Expr.Variable) expr.operand).name) >= 0)) {
+      int operand = lower(expr.operand);
+      Ir.Instr instr = emit(Ir.INDEX_UPDATE);
+      instr.a = object;
+      instr.b = index;
+      instr.args = new int[] {operand};
+      instr.token = expr.operator;
+      instr.value = expr.bracket;
+    } else {
+      Ir.Instr read = emit(Ir.INDEX_GET);
+      read.dst = ir.newRegister();
+      read.a = object;
+      read.b = index;
+      read.token = expr.bracket;
+      int value = binary(expr.operator, read.dst, lower(expr.operand));
+      Ir.Instr write = emit(Ir.INDEX_SET);
+      write.a = object;
+      write.b = index;
+      write.args = new int[] {value};
+      write.token = expr.bracket;
+    }
+    return constant(null);
+  }
+
+  @Override
+  public Integer visitLiteralExpr(Expr.Literal expr) {
+    return constant(expr.value);
+  }
+
+  // the left value is the result unless it says to go on, so both paths
+  // leave the result in one register
+  @Override
+  public Integer visitLogicalExpr(Expr.Logical expr) {
+    int result = ir.newRegister();
+    int left = lower(expr.left);
+    move(result, left);
+    Ir.Block right = ir.newBlock();
+    Ir.Block after = ir.newBlock();
+    if (expr.operator.type == TokenType.OR) {
+      branch(left, after, right);
+    } else {
+      branch(left, right, after);
+    }
+
+    current = right;
+    move(result, lower(expr.right));
+    jump(after);
+    current = after;
+    return result;
+  }
+
+  @Override
+  public Integer visitUnaryExpr(Expr.Unary expr) {
+    int right = lower(expr.right);
+    Ir.Instr instr = emit(Ir.UNARY);
+    instr.dst = ir.newRegister();
+    instr.a = right;
+    instr.token = expr.operator;
+    return instr.dst;
+  }
+
+  @Override
+  public Integer visitUpdateExpr(Expr.Update expr) {
+    int old = read(expr.read);
+    int value = binary(expr.operator, old, constant(expr.operand));
+    write(expr.name, value);
+    return value;
+  }
+
+  @Override
+  public Integer visitVariableExpr(Expr.Variable expr) {
+    return read(expr.name);
+  }
+}
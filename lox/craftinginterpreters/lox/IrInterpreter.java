@@ -0,0 +1,210 @@
+package craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// runs an Ir, for `jlox --ir` and the hot loops of TieredInterpreter.
+// operators, calls and globals all go through the tree-walking Interpreter
+// it's given, so values, errors and the REPL's globals are the same in
+// both. budgets aren't counted here, Lox refuses `--ir` and `--tier-up`
+// together with limits.
+class IrInterpreter {
+  private final Interpreter interpreter;
+  private final PrintStream out;
+
+  IrInterpreter(Interpreter interpreter, PrintStream out) {
+    this.interpreter = interpreter;
+    this.out = out;
+  }
+
+  void interpret(Ir ir) {
+    try {
+      run(ir);
+    } catch (RuntimeError error) {
+      Lox.runtimeError(error);
+    }
+  }
+
+  void run(Ir ir) throws RuntimeError {
+    run(new Code(ir), interpreter.globals);
+  }
+
+  // an Ir flattened into arrays, so running it only indexes them. built
+  // once for a graph that's run many times
+  static class Code {
+    final Ir.Instr[][] blocks;
+    final int[] exits;
+    final int[] conditions;
+    final int[] targets;
+    final int[] otherwises;
+    final int registers;
+    final Token[] imports;
+    final int[] importRegisters;
+
+    Code(Ir ir) {
+      int count = ir.blocks.size();
+      blocks = new Ir.Instr[count][];
+      exits = new int[count];
+      conditions = new int[count];
+      targets = new int[count];
+      otherwises = new int[count];
+      registers = ir.registers;
+      imports = ir.imports.keySet().toArray(new Token[0]);
+      importRegisters = new int[imports.length];
+      for (int i = 0; i < imports.length; i++) {
+        importRegisters[i] = ir.imports.get(imports[i]);
+      }
+      for (int i = 0; i < count; i++) {
+        Ir.Block block = ir.blocks.get(i);
+        block.id = i;
+        blocks[i] = block.code.toArray(new Ir.Instr[0]);
+        exits[i] = block.exit;
+        conditions[i] = block.condition;
+      }
+      for (int i = 0; i < count; i++) {
+        Ir.Block block = ir.blocks.get(i);
+        targets[i] = block.target != null ? block.target.id : -1;
+        otherwises[i] = block.otherwise != null ? block.otherwise.id : -1;
+      }
+    }
+  }
+
+  // `names` is where variables are looked up: the globals for a whole
+  // script, the scope a loop runs in for TieredInterpreter. false, without
+  // running anything, if one of the imports isn't defined there
+  boolean run(Code code, Environment names) throws RuntimeError {
+    Object[] r = new Object[code.registers];
+    Environment[] scopes = new Environment[code.imports.length];
+    for (int i = 0; i < scopes.length; i++) {
+      Token name = code.imports[i];
+      for (Environment scope = names; scope != null; scope = scope.enclosing) {
+        if (scope.has(name.symbol)) {
+          scopes[i] = scope;
+          break;
+        }
+      }
+      if (scopes[i] == null) return false;
+      r[code.importRegisters[i]] = scopes[i].getHere(name.symbol);
+    }
+
+    try {
+      execute(code, names, r);
+    } finally {
+      for (int i = 0; i < scopes.length; i++) {
+        Symbol name = code.imports[i].symbol;
+        Object value = r[code.importRegisters[i]];
+        interpreter.replaced(scopes[i].getHere(name), value);
+        scopes[i].define(name, value);
+      }
+    }
+    return true;
+  }
+
+  private void execute(Code code, Environment names, Object[] r)
+          throws RuntimeError {
+    Ir.Instr[][] blocks = code.blocks;
+    int[] exits = code.exits;
+    int[] conditions = code.conditions;
+    int[] targets = code.targets;
+    int[] otherwises = code.otherwises;
+
+    int block = 0;
+    for (;;) {
+      for (Ir.Instr instr : blocks[block]) {
+        switch (instr.op) {
+          case Ir.CONST:
+            r[instr.dst] = instr.value;
+            break;
+          case Ir.MOVE:
+            r[instr.dst] = r[instr.a];
+            break;
+          case Ir.GET_GLOBAL:
+            r[instr.dst] = names.get(instr.token);
+            break;
+          case Ir.SET_GLOBAL:
+            interpreter.stored(names.assign(instr.token, r[instr.a]),
+                    r[instr.a], instr.token.line);
+            break;
+          case Ir.DEFINE_GLOBAL:
+            interpreter.define(names, instr.token.symbol, r[instr.a],
+                    instr.token.line);
+            break;
+          case Ir.BINARY:
+            r[instr.dst] = interpreter.binary(0, instr.token, r[instr.a],
+                    r[instr.b]);
+            break;
+          case Ir.UNARY:
+            r[instr.dst] = interpreter.unary(instr.token, r[instr.a]);
+            break;
+          case Ir.CALL:
+            r[instr.dst] = call(instr, r);
+            break;
+          case Ir.PRINT:
+            Interpreter.println(out, r[instr.a]);
+            break;
+          case Ir.INDEX_GET:
+            r[instr.dst] = Interpreter.element(r[instr.a], r[instr.b],
+                    instr.token);
+            break;
+          case Ir.INDEX_SET:
+            Interpreter.setElement(r[instr.a], r[instr.b], r[instr.args[0]],
+                    instr.token);
+            break;
+          case Ir.INDEX_UPDATE:
+            interpreter.updateElement(r[instr.a], r[instr.b],
+                    (Token) instr.value, instr.token, r[instr.args[0]]);
+            break;
+        }
+      }
+
+      switch (exits[block]) {
+        case Ir.JUMP:
+          block = targets[block];
+          break;
+        case Ir.BRANCH:
+          block = Interpreter.isTruthy(r[conditions[block]])
+                  ? targets[block] : otherwises[block];
+          break;
+        default:
+          return;
+      }
+    }
+  }
+
+  private Object call(Ir.Instr instr, Object[] r) throws RuntimeError {
+    Object callee = r[instr.a];
+    int[] args = instr.args;
+    Object result;
+    try {
+      switch (args.length) {
+        case 0:
+          result = interpreter.callable(callee, instr.token, 0)
+                  .call(interpreter);
+          break;
+        case 1:
+          result = interpreter.callable(callee, instr.token, 1)
+                  .call(interpreter, r[args[0]]);
+          break;
+        case 2:
+          result = interpreter.callable(callee, instr.token, 2)
+                  .call(interpreter, r[args[0]], r[args[1]]);
+          break;
+        case 3:
+          result = interpreter.callable(callee, instr.token, 3)
+                  .call(interpreter, r[args[0]], r[args[1]], r[args[2]]);
+          break;
+        default: {
+          List<Object> values = new ArrayList<>(args.length);
+          for (int arg : args) values.add(r[arg]);
+          result = interpreter.callable(callee, instr.token, args.length)
+                  .call(interpreter, values);
+          break;
+        }
+      }
+    } catch (NativeFunction.Failure failure) {
+      throw new RuntimeError(instr.token, failure.getMessage());
+    }
+    return interpreter.called(result, instr.token);
+  }
+}
@@ -0,0 +1,380 @@
+package craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// optimization passes over an Ir, repeated until nothing changes:
+//
+//   common subexpressions: value numbering inside each block. every write
+//   to a register starts a new version of it, numbered by the value it
+//   holds. an operator applied to values it was already applied to becomes
+//   a copy of the earlier result, a read of a global that was just read or
+//   written becomes a copy of that value, and uses of a copy are pointed
+//   at the original while it still holds that version.
+//
+//   unreachable blocks: a branch on a constant becomes a jump, jumps to
+//   empty blocks go straight on, and blocks nothing reaches are dropped.
+//
+//   dead stores: a write to a register that no path reads again is
+//   removed, if it can't fail. so is a write to a global that's written
+//   again later in the block before anything could fail, since nothing
+//   could ever see the first value.
+//
+// nothing that can raise a runtime error is removed or moved, so errors
+// come from the same place with the same globals set as before.
+class IrOptimizer {
+  int commonSubexpressions = 0;
+  int foldedBranches = 0;
+  int unreachableBlocks = 0;
+  int deadStores = 0;
+
+  private final Ir ir;
+  private BitSet exported;    // registers of Ir.imports
+
+  private IrOptimizer(Ir ir) {
+    this.ir = ir;
+  }
+
+  static IrOptimizer optimize(Ir ir) {
+    IrOptimizer optimizer = new IrOptimizer(ir);
+    optimizer.run();
+    return optimizer;
+  }
+
+  private void run() {
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (Ir.Block block : ir.blocks) {
+        changed |= new ValueNumbering().run(block);
+      }
+      changed |= removeUnreachable();
+      for (Ir.Block block : ir.blocks) changed |= removeGlobalStores(block);
+      changed |= removeDeadStores();
+    }
+  }
+
+  // one block's worth of value numbering
+  private class ValueNumbering {
+    // register -> the value number of what it holds now
+    private final Map<Integer, Integer> version = new HashMap<>();
+    // value number -> the first register still holding it
+    private final Map<Integer, Integer> holder = new HashMap<>();
+    // (operator, operand numbers), constant or global -> value number
+    private final Map<List<Object>, Integer> values = new HashMap<>();
+    // value number -> the constant it is
+    private final Map<Integer, Object> constants = new HashMap<>();
+    private int next = 0;
+    private boolean changed = false;
+
+    boolean run(Ir.Block block) {
+      for (Ir.Instr instr : block.code) number(instr);
+      block.code.removeIf(instr -> instr.op == Ir.MOVE && instr.a == instr.dst);
+
+      if (block.exit == Ir.BRANCH) {
+        block.condition = original(block.condition);
+        int condition = versionOf(block.condition);
+        if (constants.containsKey(condition)) {
+          boolean taken = Interpreter.isTruthy(constants.get(condition));
+          block.exit = Ir.JUMP;
+          block.target = taken ? block.target : block.otherwise;
+          block.otherwise = null;
+          block.condition = -1;
+          foldedBranches++;
+          changed = true;
+        }
+      }
+      return changed;
+    }
+
+    private void number(Ir.Instr instr) {
+      if (instr.a >= 0) instr.a = original(instr.a);
+      if (instr.b >= 0) instr.b = original(instr.b);
+      if (instr.args != null) {
+        for (int i = 0; i < instr.args.length; i++) {
+          instr.args[i] = original(instr.args[i]);
+        }
+      }
+
+      switch (instr.op) {
+        case Ir.CONST: {
+          List<Object> key = Arrays.asList("const", instr.value);
+          Integer known = values.get(key);
+          if (known == null) {
+            known = next++;
+            values.put(key, known);
+            constants.put(known, instr.value);
+          }
+          write(instr.dst, known);
+          break;
+        }
+        case Ir.MOVE:
+          write(instr.dst, versionOf(instr.a));
+          break;
+        case Ir.BINARY:
+          reuse(instr, Arrays.asList(instr.token.type,
+                  versionOf(instr.a), versionOf(instr.b)));
+          break;
+        case Ir.UNARY:
+          reuse(instr, Arrays.asList(instr.token.type, versionOf(instr.a)));
+          break;
+        case Ir.GET_GLOBAL:
+          reuse(instr, Arrays.asList("global", instr.token.symbol));
+          break;
+        case Ir.SET_GLOBAL:
+        case Ir.DEFINE_GLOBAL: {
+          // the global now holds exactly this value
+          int value = versionOf(instr.a);
+          values.put(Arrays.asList("global", instr.token.symbol), value);
+          if (!holds(value)) holder.put(value, instr.a);
+          break;
+        }
+        case Ir.CALL:
+        case Ir.INDEX_GET:
+          // an element can change between two reads of it
+          write(instr.dst, next++);
+          break;
+      }
+    }
+
+    // the same value computed earlier and still in a register becomes a
+    // copy of that register
+    private void reuse(Ir.Instr instr, List<Object> key) {
+      Integer known = values.get(key);
+      if (known != null && holds(known)) {
+        instr.op = Ir.MOVE;
+        instr.a = holder.get(known);
+        instr.b = -1;
+        instr.token = null;
+        commonSubexpressions++;
+        changed = true;
+        write(instr.dst, known);
+        return;
+      }
+      int value = next++;
+      values.put(key, value);
+      write(instr.dst, value);
+    }
+
+    private void write(int register, int value) {
+      version.put(register, value);
+      if (!holds(value)) holder.put(value, register);
+    }
+
+    private int versionOf(int register) {
+      Integer value = version.get(register);
+      if (value == null) {
+        // whatever it held coming into the block
+        value = next++;
+        version.put(register, value);
+        holder.putIfAbsent(value, register);
+      }
+      return value;
+    }
+
+    private boolean holds(int value) {
+      Integer register = holder.get(value);
+      return register != null && version.get(register) == value;
+    }
+
+    // the register first given this register's current value, so copies
+    // of copies all read the original
+    private int original(int register) {
+      int value = versionOf(register);
+      int first = holder.get(value);
+      if (first != register && version.get(first) == value) {
+        changed = true;
+        return first;
+      }
+      return register;
+    }
+  }
+
+  private boolean removeUnreachable() {
+    boolean changed = false;
+    for (Ir.Block block : ir.blocks) {
+      if (block.target != null) {
+        Ir.Block target = skipEmpty(block.target);
+        changed |= target != block.target;
+        block.target = target;
+      }
+      if (block.otherwise != null) {
+        Ir.Block otherwise = skipEmpty(block.otherwise);
+        changed |= otherwise != block.otherwise;
+        block.otherwise = otherwise;
+      }
+      if (block.exit == Ir.BRANCH && block.target == block.otherwise) {
+        // the condition was computed anyway, only the branch goes
+        block.exit = Ir.JUMP;
+        block.otherwise = null;
+        block.condition = -1;
+        foldedBranches++;
+        changed = true;
+      }
+    }
+
+    Set<Ir.Block> reached =
+            Collections.newSetFromMap(new IdentityHashMap<>());
+    List<Ir.Block> order = new ArrayList<>();
+    List<Ir.Block> work = new ArrayList<>();
+    work.add(ir.blocks.get(0));
+    while (!work.isEmpty()) {
+      Ir.Block block = work.remove(work.size() - 1);
+      if (!reached.add(block)) continue;
+      order.add(block);
+      if (block.otherwise != null) work.add(block.otherwise);
+      if (block.target != null) work.add(block.target);
+    }
+    if (order.size() < ir.blocks.size()) {
+      unreachableBlocks += ir.blocks.size() - order.size();
+      changed = true;
+    }
+    // renumbered in the order they're reached, so the printed form reads
+    // top to bottom
+    ir.blocks.clear();
+    ir.blocks.addAll(order);
+    for (int i = 0; i < order.size(); i++) order.get(i).id = i;
+    return changed;
+  }
+
+  // follow jumps through blocks with no code, stopping at a cycle of them
+  private static Ir.Block skipEmpty(Ir.Block block) {
+    Ir.Block at = block;
+    for (int hops = 0; at.code.isEmpty() && at.exit == Ir.JUMP; hops++) {
+      if (at.target == at || hops > 64) break;
+      at = at.target;
+    }
+    return at;
+  }
+
+  // a global write that's written again before anything can fail. the
+  // first write can't fail either only if the global is known to exist
+  private boolean removeGlobalStores(Ir.Block block) {
+    List<Ir.Instr> code = block.code;
+    boolean[] exists = new boolean[code.size()];
+    Set<Symbol> seen = new HashSet<>();
+    for (int i = 0; i < code.size(); i++) {
+      Ir.Instr instr = code.get(i);
+      switch (instr.op) {
+        case Ir.GET_GLOBAL:
+        case Ir.SET_GLOBAL:
+        case Ir.DEFINE_GLOBAL:
+          exists[i] = !seen.add(instr.token.symbol);
+          break;
+      }
+    }
+
+    // global -> true if the later write is a `var`, which makes it exist
+    Map<Symbol, Boolean> overwritten = new HashMap<>();
+    boolean changed = false;
+    for (int i = code.size() - 1; i >= 0; i--) {
+      Ir.Instr instr = code.get(i);
+      switch (instr.op) {
+        case Ir.SET_GLOBAL: {
+          Symbol name = instr.token.symbol;
+          if (exists[i] && overwritten.containsKey(name)) {
+            code.remove(i);
+            deadStores++;
+            changed = true;
+            break;
+          }
+          if (!exists[i]) overwritten.clear();
+          overwritten.put(name, false);
+          break;
+        }
+        case Ir.DEFINE_GLOBAL: {
+          Symbol name = instr.token.symbol;
+          Boolean byVar = overwritten.get(name);
+          if (byVar != null && (byVar || exists[i])) {
+            code.remove(i);
+            deadStores++;
+            changed = true;
+            break;
+          }
+          overwritten.put(name, true);
+          break;
+        }
+        case Ir.GET_GLOBAL:
+          if (!exists[i]) overwritten.clear();
+          overwritten.remove(instr.token.symbol);
+          break;
+        case Ir.PRINT:
+          break;
+        default:
+          if (!instr.isPure()) overwritten.clear();
+          break;
+      }
+    }
+    return changed;
+  }
+
+  // liveness over the whole graph, then a backward sweep per block.
+  // imported variables are read when the graph ends and wherever it can
+  // fail, that's when they're stored back
+  private boolean removeDeadStores() {
+    List<Ir.Block> blocks = ir.blocks;
+    exported = new BitSet();
+    for (int register : ir.imports.values()) exported.set(register);
+    Map<Ir.Block, BitSet> liveIn = new IdentityHashMap<>();
+    for (Ir.Block block : blocks) liveIn.put(block, new BitSet());
+
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = blocks.size() - 1; i >= 0; i--) {
+        Ir.Block block = blocks.get(i);
+        BitSet live = liveOut(block, liveIn);
+        for (int j = block.code.size() - 1; j >= 0; j--) {
+          transfer(block.code.get(j), live);
+        }
+        if (!live.equals(liveIn.get(block))) {
+          liveIn.put(block, live);
+          changed = true;
+        }
+      }
+    }
+
+    boolean removed = false;
+    for (Ir.Block block : blocks) {
+      BitSet live = liveOut(block, liveIn);
+      for (int j = block.code.size() - 1; j >= 0; j--) {
+        Ir.Instr instr = block.code.get(j);
+        if (instr.hasResult() && !live.get(instr.dst) && instr.isPure()) {
+          block.code.remove(j);
+          deadStores++;
+          removed = true;
+          continue;
+        }
+        transfer(instr, live);
+      }
+    }
+    return removed;
+  }
+
+  private BitSet liveOut(Ir.Block block, Map<Ir.Block, BitSet> liveIn) {
+    BitSet live = new BitSet();
+    if (block.exit == Ir.END) live.or(exported);
+    if (block.target != null) live.or(liveIn.get(block.target));
+    if (block.otherwise != null) live.or(liveIn.get(block.otherwise));
+    if (block.exit == Ir.BRANCH) live.set(block.condition);
+    return live;
+  }
+
+  private void transfer(Ir.Instr instr, BitSet live) {
+    if (instr.hasResult()) live.clear(instr.dst);
+    if (!instr.isPure()) live.or(exported);
+    if (instr.a >= 0) live.set(instr.a);
+    if (instr.b >= 0) live.set(instr.b);
+    if (instr.args != null) {
+      for (int arg : instr.args) live.set(arg);
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+// the instrumented interpreter for `--jfr`, see LoxEvents. only created
+// when asked for, so a normal run doesn't even load the event classes.
+class JfrInterpreter extends Interpreter {
+  private static final int MAX_TRACKED_DEPTH = 63;
+
+  private long executed = 0;
+  private int depth = 0;
+  private final long[] depths = new long[MAX_TRACKED_DEPTH + 1];
+
+  JfrInterpreter(PrintStream out, Budget budget) {
+    super(out, budget);
+  }
+
+  @Override
+  void run(List<Stmt> statements) throws RuntimeError {
+    executed = 0;
+    Arrays.fill(depths, 0);
+
+    LoxEvents.Phase phase = new LoxEvents.Phase();
+    phase.begin();
+    try {
+      super.run(statements);
+    } catch (RuntimeError error) {
+      LoxEvents.ScriptError event = new LoxEvents.ScriptError();
+      event.message = error.getMessage();
+      event.line = error.line;
+      event.commit();
+      throw error;
+    } finally {
+      phase.end();
+      phase.phase = "interpret";
+      phase.statements = executed;
+      phase.commit();
+      commitDepths();
+    }
+  }
+
+  @Override
+  void execute(Stmt stmt) throws RuntimeError {
+    executed++;
+    LoxEvents.SlowStatement event = new LoxEvents.SlowStatement();
+    event.begin();
+    super.execute(stmt);
+    event.end();
+    if (event.shouldCommit()) {   // only past the configured threshold
+      event.line = stmt.line;
+      event.statement = stmt.getClass().getSimpleName().toLowerCase();
+      event.commit();
+    }
+  }
+
+  @Override
+  void executeBlock(List<Stmt> statements, Environment environment)
+          throws RuntimeError {
+    depth++;
+    depths[Math.min(depth, MAX_TRACKED_DEPTH)]++;
+    try {
+      super.executeBlock(statements, environment);
+    } finally {
+      depth--;
+    }
+  }
+
+  private void commitDepths() {
+    LoxEvents.EnvironmentDepth event = new LoxEvents.EnvironmentDepth();
+    if (!event.isEnabled()) return;
+
+    StringBuilder histogram = new StringBuilder();
+    for (int i = 1; i < depths.length; i++) {
+      if (depths[i] == 0) continue;
+      if (histogram.length() > 0) histogram.append(',');
+      histogram.append(i).append(':').append(depths[i]);
+      event.blocks += depths[i];
+      event.maxDepth = i;
+    }
+    event.histogram = histogram.toString();
+    event.commit();
+  }
+}
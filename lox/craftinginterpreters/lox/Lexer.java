@@ -10,12 +10,40 @@ import static craftinginterpreters.lox.TokenType.*;
 class Lexer {
   private final String source;                          // source
   private final List<Token> tokens = new ArrayList<>(); // list of tokens
+  private final List<Diagnostic> diagnostics;           // lexical errors
+  private final int end;      // lex up to here, the whole source by default
+  // whether a string still open at `end` runs on to its closing quote
+  private final boolean overrun;
   private int start = 0;      // first char of the lexeme being lexed
   private int current = 0;    // character currently being considered
   private int line = 1;       // tracks current so tokens know their location
+  // a string still open at `end` when not overrunning: where it starts
+  private int openString = -1;
+  private int openStringLine = 0;
+  private boolean lexedEof = false;
+  private boolean copying = false;
+
+  Lexer(String source, List<Diagnostic> diagnostics) {
+    this(source, 0, source.length(), 1, true, diagnostics);
+  }
 
-  Lexer(String source) {
+  // lexes only source[from, to), starting on `line`. for ParallelLexer
+  Lexer(String source, int from, int to, int line, boolean overrun,
+        List<Diagnostic> diagnostics) {
     this.source = source;
+    this.diagnostics = diagnostics;
+    this.end = to;
+    this.overrun = overrun;
+    this.current = from;
+    this.line = line;
+  }
+
+  // lexemes and string literals as Strings of their own rather than
+  // slices of the source, for tokens that outlive it. for IncrementalParser,
+  // where every edit makes a new source
+  Lexer copying() {
+    copying = true;
+    return this;
   }
 
   private static final Map<String, TokenType> keywords;
@@ -42,15 +70,70 @@ class Lexer {
 
   // lex source, add EOF token at the end
   List<Token> lexTokens() {
+    lexRange();
+    tokens.add(new Token(EOF, "", null, line));
+    return tokens;
+  }
+
+  // lex up to `end`, no EOF. an overrunning string can take it past `end`.
+  // once done, calling it again just hands back the same tokens
+  List<Token> lexRange() {
     while (!isAtEnd()) {
       start = current;
       lexToken();
     }
-
-    tokens.add(new Token(EOF, "", null, line));
     return tokens;
   }
 
+  // the next `count` or so tokens, the EOF last, then nothing. each batch
+  // is handed over and forgotten, so the Lexer never holds more than one.
+  // for Pipeline
+  List<Token> lexNext(int count) {
+    while (!isAtEnd() && tokens.size() < count) {
+      start = current;
+      lexToken();
+    }
+    if (isAtEnd() && !lexedEof) {
+      tokens.add(new Token(EOF, "", null, line));
+      lexedEof = true;
+    }
+    List<Token> batch = new ArrayList<>(tokens);
+    tokens.clear();
+    return batch;
+  }
+
+  // the next token on its own, or null once at `end`, never EOF. its first
+  // character is at tokenStart(). for IncrementalParser
+  Token lexOne() {
+    while (!isAtEnd()) {
+      start = current;
+      lexToken();
+      if (!tokens.isEmpty()) return tokens.remove(0);
+    }
+    return null;
+  }
+
+  int tokenStart() {
+    return start;
+  }
+
+  // where and on which line lexing stopped
+  int position() {
+    return current;
+  }
+
+  int line() {
+    return line;
+  }
+
+  int openString() {
+    return openString;
+  }
+
+  int openStringLine() {
+    return openStringLine;
+  }
+
   private void lexToken() {
     char c = advance();
     switch (c) {
@@ -62,6 +145,10 @@ class Lexer {
         break;
       case '}': addToken(RIGHT_BRACE);
         break;
+      case '[': addToken(LEFT_BRACKET);
+        break;
+      case ']': addToken(RIGHT_BRACKET);
+        break;
       case ',': addToken(COMMA);
         break;
       case '.': addToken(DOT);
@@ -112,20 +199,28 @@ class Lexer {
           // lexical errors - unexpected characters
           // if there is an error, we don't execute the code, but we will keep
           // scanning so that we can report all the syntax errors at once.
-          Lox.error(line, "Unexpected character.");
+          diagnostics.add(new Diagnostic(line, "", "Unexpected character."));
         }
         break;
     }
   }
 
   private void string() {
-    while (peek() != '"' && !isAtEnd()) {
-      if (peek() == '\n') line++;   // multiline strings lol
-      advance();
+    int startLine = line;
+    int limit = overrun ? source.length() : end;
+    while (current < limit && source.charAt(current) != '"') {
+      if (source.charAt(current) == '\n') line++;   // multiline strings lol
+      current++;
     }
 
-    if (isAtEnd()) {
-      Lox.error(line, "Unterminated string.");
+    if (current >= limit) {
+      if (limit < source.length()) {
+        // may well close in the next chunk, leave it to ParallelLexer
+        openString = start;
+        openStringLine = startLine;
+        return;
+      }
+      diagnostics.add(new Diagnostic(line, "", "Unterminated string."));
       return;
     }
 
@@ -133,8 +228,7 @@ class Lexer {
     advance();
 
     // trim the surrounding quotes
-    String value = source.substring(start + 1, current - 1);
-    addToken(STRING, value);
+    addToken(STRING, text(start + 1, current - 1));
 
     // note - lox does not support escape sequences
   }
@@ -163,13 +257,19 @@ class Lexer {
     String text = source.substring(start, current);
     // then check if it is a keyword
     TokenType type = keywords.get(text);
-    // if it's not a keyword, it's an identifier
-    if (type == null) type = IDENTIFIER;
-    addToken(type);
+    if (type != null) {
+      tokens.add(new Token(type, text, null, line));
+      return;
+    }
+
+    // if it's not a keyword, it's an identifier. every occurrence of a name
+    // shares the interned symbol and its string, not its own substring
+    Symbol symbol = Symbol.intern(text);
+    tokens.add(new Token(IDENTIFIER, symbol.name, null, line, symbol));
   }
 
   private boolean isAtEnd() {
-    return current >= source.length();
+    return current >= end;
   }
 
   // consumes next character
@@ -183,8 +283,13 @@ class Lexer {
   }
 
   private void addToken(TokenType type, Object literal) {
-    String text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+    tokens.add(new Token(type, text(start, current), literal, line));
+  }
+
+  // source[from, to) without copying it, unless copying()
+  private CharSequence text(int from, int to) {
+    return copying ? source.substring(from, to)
+            : new SourceSlice(source, from, to);
   }
 
   // checking next char for double char operators
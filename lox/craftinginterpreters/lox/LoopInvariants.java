@@ -0,0 +1,164 @@
+package craftinginterpreters.lox;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// loop-invariant code motion. inside a `while` (including the ones `for`
+// desugars into), a subtree that only reads variables the loop never
+// assigns or declares, and that calls nothing, gives the same value on
+// every iteration. each maximal such subtree with an operator in it is
+// wrapped in an Expr.Hoisted, which the interpreter evaluates once per
+// execution of the loop and then reuses.
+//
+// the hoisted expression is still evaluated where it always was, the
+// first time it's reached. it isn't moved in front of the loop, so a loop
+// that never runs it never runs it, and a runtime error in it happens at
+// exactly the same point as before.
+class LoopInvariants extends AstRewriter {
+  static List<Stmt> apply(List<Stmt> statements) {
+    return new LoopInvariants().rewrite(statements);
+  }
+
+  private int loops = 0;      // `while`s around the one being rewritten
+  private int hoisted = 0;    // Hoisted nodes handed out so far
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    // inner loops first, they hoist what's invariant in them
+    loops++;
+    Stmt.While loop = new Stmt.While(rewrite(stmt.condition),
+            rewrite(stmt.body));
+    loops--;
+
+    Set<Symbol> assigned = new HashSet<>();
+    assignments(loop.condition, assigned);
+    assignments(loop.body, assigned);
+    Hoister hoister = new Hoister(assigned, loops);
+    return new Stmt.While(hoister.rewrite(loop.condition),
+            hoister.rewrite(loop.body));
+  }
+
+  // rewrites one loop's condition and body, leaving nested loops alone
+  private class Hoister extends AstRewriter {
+    private final Set<Symbol> assigned;
+    private final int loop;
+
+    Hoister(Set<Symbol> assigned, int loop) {
+      this.assigned = assigned;
+      this.loop = loop;
+    }
+
+    @Override
+    Expr rewrite(Expr expr) {
+      if (expr != null && hasOperator(expr) && isInvariant(expr)) {
+        return new Expr.Hoisted(expr, hoisted++, loop);
+      }
+      return super.rewrite(expr);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+      return stmt;
+    }
+
+    private boolean isInvariant(Expr expr) {
+      if (expr instanceof Expr.Literal) return true;
+      if (expr instanceof Expr.Variable) {
+        return !assigned.contains(((Expr.Variable) expr).name.symbol);
+      }
+      if (expr instanceof Expr.Grouping) {
+        return isInvariant(((Expr.Grouping) expr).expression);
+      }
+      if (expr instanceof Expr.Unary) {
+        return isInvariant(((Expr.Unary) expr).right);
+      }
+      if (expr instanceof Expr.Binary) {
+        return isInvariant(((Expr.Binary) expr).left)
+                && isInvariant(((Expr.Binary) expr).right);
+      }
+      if (expr instanceof Expr.Logical) {
+        return isInvariant(((Expr.Logical) expr).left)
+                && isInvariant(((Expr.Logical) expr).right);
+      }
+      if (expr instanceof Expr.Compare) {
+        Expr.Compare compare = (Expr.Compare) expr;
+        return !assigned.contains(compare.left.symbol) &&
+                (compare.rightName == null
+                        || !assigned.contains(compare.rightName.symbol));
+      }
+      // assignments change things, natives may not be pure and an array
+      // element can be written through any variable holding the array
+      return false;
+    }
+  }
+
+  // a lone variable or literal is as cheap as reading the cached value
+  private static boolean hasOperator(Expr expr) {
+    if (expr instanceof Expr.Grouping) {
+      return hasOperator(((Expr.Grouping) expr).expression);
+    }
+    return expr instanceof Expr.Binary || expr instanceof Expr.Unary
+            || expr instanceof Expr.Logical || expr instanceof Expr.Compare;
+  }
+
+  // every name the loop assigns or declares, nested loops included
+  private static void assignments(Stmt stmt, Set<Symbol> names) {
+    if (stmt instanceof Stmt.Block) {
+      for (Stmt inner : ((Stmt.Block) stmt).statements) {
+        assignments(inner, names);
+      }
+    } else if (stmt instanceof Stmt.Expression) {
+      assignments(((Stmt.Expression) stmt).expression, names);
+    } else if (stmt instanceof Stmt.If) {
+      assignments(((Stmt.If) stmt).condition, names);
+      assignments(((Stmt.If) stmt).thenBranch, names);
+      assignments(((Stmt.If) stmt).elseBranch, names);
+    } else if (stmt instanceof Stmt.Print) {
+      assignments(((Stmt.Print) stmt).expression, names);
+    } else if (stmt instanceof Stmt.Var) {
+      names.add(((Stmt.Var) stmt).name.symbol);
+      assignments(((Stmt.Var) stmt).initializer, names);
+    } else if (stmt instanceof Stmt.While) {
+      assignments(((Stmt.While) stmt).condition, names);
+      assignments(((Stmt.While) stmt).body, names);
+    }
+  }
+
+  private static void assignments(Expr expr, Set<Symbol> names) {
+    if (expr instanceof Expr.Assign) {
+      names.add(((Expr.Assign) expr).name.symbol);
+      assignments(((Expr.Assign) expr).value, names);
+    } else if (expr instanceof Expr.Update) {
+      names.add(((Expr.Update) expr).name.symbol);
+    } else if (expr instanceof Expr.Binary) {
+      assignments(((Expr.Binary) expr).left, names);
+      assignments(((Expr.Binary) expr).right, names);
+    } else if (expr instanceof Expr.Call) {
+      assignments(((Expr.Call) expr).callee, names);
+      for (Expr argument : ((Expr.Call) expr).arguments) {
+        assignments(argument, names);
+      }
+    } else if (expr instanceof Expr.Grouping) {
+      assignments(((Expr.Grouping) expr).expression, names);
+    } else if (expr instanceof Expr.Hoisted) {
+      assignments(((Expr.Hoisted) expr).expression, names);
+    } else if (expr instanceof Expr.Index) {
+      assignments(((Expr.Index) expr).object, names);
+      assignments(((Expr.Index) expr).index, names);
+    } else if (expr instanceof Expr.IndexSet) {
+      assignments(((Expr.IndexSet) expr).object, names);
+      assignments(((Expr.IndexSet) expr).index, names);
+      assignments(((Expr.IndexSet) expr).value, names);
+    } else if (expr instanceof Expr.IndexUpdate) {
+      assignments(((Expr.IndexUpdate) expr).object, names);
+      assignments(((Expr.IndexUpdate) expr).index, names);
+      assignments(((Expr.IndexUpdate) expr).operand, names);
+    } else if (expr instanceof Expr.Logical) {
+      assignments(((Expr.Logical) expr).left, names);
+      assignments(((Expr.Logical) expr).right, names);
+    } else if (expr instanceof Expr.Unary) {
+      assignments(((Expr.Unary) expr).right, names);
+    }
+  }
+}
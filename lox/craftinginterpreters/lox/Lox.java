@@ -1,22 +1,177 @@
 package craftinginterpreters.lox;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class Lox {
-  private static final Interpreter interpreter = new Interpreter();
+  private static Interpreter interpreter = new Interpreter();
   static boolean hadError = false; // don't run a program with an error
   static boolean hadRuntimeError = false;
+  // where diagnostics go, swapped per request by the server
+  static PrintStream err = System.err;
+  // `--profile` is "", `--profile=<file>` is the collapsed stack output,
+  // null when not profiling
+  private static String profile = null;
+  // `--trace=<file>`: record into a ring buffer, dumped here at exit
+  private static String trace = null;
+  // `--coverage=<file>`: statement coverage of the script, merged into
+  // <file> at exit
+  private static String coverageFile = null;
+  private static final Coverage coverage = new Coverage();
+  // `--feedback=<file>`: type profiles loaded from and saved to <file>
+  private static String feedbackFile = null;
+  private static final TypeFeedback feedback = new TypeFeedback();
+  // `--parallel-lex`: lex the source in chunks on a ForkJoinPool
+  static boolean parallelLex = false;
+  // `--parallel-parse`: parse top-level statements on a ForkJoinPool
+  static boolean parallelParse = false;
+  // `--ir`: lower to the control-flow graph, optimize it and run that
+  private static boolean ir = false;
+  // `--pipeline`: lex and parse on another thread while running, see
+  // Pipeline
+  private static boolean pipeline = false;
+  // `--snapshot=<file>`: the globals saved to <file> after a clean run or
+  // at the end of a REPL session. `--restore=<file>`: loaded before
+  // anything runs. see Snapshot
+  private static String snapshotFile = null;
+  private static String restoreFile = null;
+  // `--tier-up[=<tests>]`: compile loops whose condition was tested that
+  // often, see TieredInterpreter. -1 when not tiering
+  private static int tierUp = -1;
 
   public static void main(String[] args) throws IOException, RuntimeError {
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
-      System.exit(64);
+    // leading `--max-instructions=N`, `--timeout-ms=N`, `--max-memory=N`,
+    // `--profile[=<file>]`, `--trace=<file>`, `--coverage=<file>`, `--jfr`,
+    // `--feedback=<file>`, `--parallel-lex`, `--parallel-parse`, `--ir`,
+    // `--tier-up[=<tests>]`, `--pipeline`, `--snapshot=<file>`,
+    // `--restore=<file>`
+    Budget budget = Budget.UNLIMITED;
+    int first = 0;
+    try {
+      for (; first < args.length; first++) {
+        if (args[first].equals("--profile")) {
+          profile = "";
+          continue;
+        }
+        if (args[first].startsWith("--profile=")) {
+          profile = args[first].substring("--profile=".length());
+          continue;
+        }
+        if (args[first].startsWith("--trace=")) {
+          trace = args[first].substring("--trace=".length());
+          continue;
+        }
+        if (args[first].equals("--parallel-lex")) {
+          parallelLex = true;
+          continue;
+        }
+        if (args[first].equals("--parallel-parse")) {
+          parallelParse = true;
+          continue;
+        }
+        if (args[first].equals("--tier-up")) {
+          tierUp = TieredInterpreter.DEFAULT_THRESHOLD;
+          continue;
+        }
+        if (args[first].startsWith("--tier-up=")) {
+          tierUp = Integer.parseInt(
+                  args[first].substring("--tier-up=".length()));
+          if (tierUp < 0) usage();
+          continue;
+        }
+        if (args[first].startsWith("--snapshot=")) {
+          snapshotFile = args[first].substring("--snapshot=".length());
+          continue;
+        }
+        if (args[first].startsWith("--restore=")) {
+          restoreFile = args[first].substring("--restore=".length());
+          continue;
+        }
+        if (args[first].equals("--pipeline")) {
+          pipeline = true;
+          continue;
+        }
+        if (args[first].equals("--ir")) {
+          ir = true;
+          continue;
+        }
+        if (args[first].equals("--jfr")) {
+          LoxEvents.enabled = true;
+          continue;
+        }
+        if (args[first].startsWith("--feedback=")) {
+          feedbackFile = args[first].substring("--feedback=".length());
+          continue;
+        }
+        if (args[first].startsWith("--coverage=")) {
+          coverageFile = args[first].substring("--coverage=".length());
+          continue;
+        }
+        Budget limited = budget.withOption(args[first]);
+        if (limited == null) break;
+        budget = limited;
+      }
+    } catch (NumberFormatException e) {
+      usage();
+    }
+    args = Arrays.copyOfRange(args, first, args.length);
+    int instrumented = (trace != null ? 1 : 0) +
+            (coverageFile != null ? 1 : 0) + (LoxEvents.enabled ? 1 : 0) +
+            (feedbackFile != null ? 1 : 0) + (tierUp >= 0 ? 1 : 0);
+    if (instrumented > 1) {
+      usage();    // one instrumented interpreter at a time
+    } else if ((coverageFile != null || feedbackFile != null)
+            && args.length != 1) {
+      usage();    // both are about one script, every REPL line is a new one
+    } else if (args.length > 0 && args[0].equals("--server")
+            && (instrumented > 0 || ir || pipeline || profile != null
+            || snapshotFile != null || restoreFile != null)) {
+      usage();    // every request runs on a plain Interpreter, see LoxServer
+    } else if ((ir && instrumented > 0) || ((ir || tierUp >= 0)
+            && (profile != null || budget != Budget.UNLIMITED))) {
+      usage();    // the graph is run by IrInterpreter, which has none of it
+    } else if (pipeline && (ir || profile != null || parallelLex
+            || parallelParse || instrumented > (tierUp >= 0 ? 1 : 0))) {
+      usage();    // all of them want the whole program up front
+    } else if (tierUp >= 0) {
+      interpreter = new TieredInterpreter(System.out, tierUp);
+    } else if (LoxEvents.enabled) {
+      interpreter = new JfrInterpreter(System.out, budget);
+    } else if (feedbackFile != null) {
+      interpreter = new FeedbackInterpreter(System.out, budget, feedback);
+    } else if (coverageFile != null) {
+      interpreter = new CoverageInterpreter(System.out, budget, coverage);
+    } else if (trace != null) {
+      interpreter = new TracingInterpreter(System.out, budget,
+              new TraceBuffer(TraceBuffer.DEFAULT_RECORDS));
+    } else {
+      interpreter = new Interpreter(System.out, budget);
+    }
+    if (restoreFile != null) restore(restoreFile);
+
+    if (args.length == 2 && args[0].equals("--server")) {
+      new LoxServer(args[1], budget).serve();   // `lox --server <SOCKET>`
+    } else if (args.length == 3 && args[0].equals("--client")) {
+      System.exit(LoxClient.run(args[1], args[2]));
+    } else if (args.length == 2 && (args[0].equals("--print-ast")
+            || args[0].equals("--format"))) {
+      writeTree(args[1], args[0].equals("--format"));
+    } else if (args.length == 2 && args[0].equals("--print-ir")) {
+      printIr(args[1]);
+    } else if (args.length > 1) {
+      usage();
     } else if (args.length == 1) {  // `lox <FILENAME>` interpret file
       runFile(args[0]);
     } else {
@@ -25,12 +180,38 @@ public class Lox {
   }
 
 
+  private static void usage() {
+    System.out.println("Usage: jlox [limits] [--parallel-lex] " +
+            "[--parallel-parse] [--pipeline] [--profile[=<file>]] " +
+            "[--restore=<file>] [--snapshot=<file>] " +
+            "[--trace=<file> | --coverage=<file> | --feedback=<file> | " +
+            "--jfr | --ir | --tier-up[=<tests>]] [script]");
+    System.out.println("       jlox [limits] --server <socket>");
+    System.out.println("       jlox --client <socket> <script|->");
+    System.out.println("       jlox --print-ast | --format | --print-ir " +
+            "<script>");
+    System.out.println("limits: --max-instructions=N --timeout-ms=N " +
+            "--max-memory=BYTES");
+    System.out.println("--coverage and --feedback need a script");
+    System.out.println("with --pipeline, the statements before the first " +
+            "with a syntax error run before it's reported");
+    System.out.println("in the REPL, `:snapshot <file>` saves the globals");
+    System.exit(64);
+  }
+
   // run file `lox <FILENAME>`
   private static void runFile(String path) throws IOException, RuntimeError {
     byte[] bytes = Files.readAllBytes(Paths.get(path));
     // runs the Lexer with a String parameter
     // the String is created by decoding the bytes using UTF-8
-    run(new String(bytes, Charset.defaultCharset()));
+    boolean ran = run(new String(bytes, Charset.defaultCharset()));
+    dumpTrace();
+    reportTiers();
+    if (ran && !hadRuntimeError && snapshotFile != null) {
+      snapshot(snapshotFile);
+    }
+    if (ran && coverageFile != null) coverage.write(Paths.get(coverageFile));
+    if (ran && feedbackFile != null) feedback.write(Paths.get(feedbackFile));
 
     // Indicate an error in the exit code
     if (hadError) System.exit(65);
@@ -48,42 +229,166 @@ public class Lox {
       System.out.print("> ");           // prompt char
       String line = reader.readLine();  // read line
       if (line == null) break;          // if null, end of use
+      if (line.startsWith(":snapshot ")) {
+        snapshot(line.substring(":snapshot ".length()).trim());
+        continue;
+      }
       run(line);                        // otherwise run it =-)
       hadError = false;                 // don't crash REPL for an error
     }
+    dumpTrace();
+    reportTiers();
+    if (snapshotFile != null) snapshot(snapshotFile);
   }
 
-  private static void run(String source) throws RuntimeError {
-    Lexer lexer = new Lexer(source);          // lexical analysis
-    List<Token> tokens = lexer.lexTokens();   // breaking a source into tokens
-    Parser parser = new Parser(tokens);
-    List<Stmt> statements = parser.parse();
-    if (hadError) return;
-    interpreter.interpret(statements);
+  // `lox --print-ast <FILENAME>` / `lox --format <FILENAME>`, streamed to
+  // stdout as the tree is walked
+  private static void writeTree(String path, boolean format)
+          throws IOException {
+    byte[] bytes = Files.readAllBytes(Paths.get(path));
+    List<Stmt> statements = parse(new String(bytes, Charset.defaultCharset()));
+    if (hadError) System.exit(65);
+
+    Writer out = new BufferedWriter(new OutputStreamWriter(System.out,
+            Charset.defaultCharset()), 1 << 16);
+    AstWriter writer = format ? new AstFormatter(out) : new AstPrinter(out);
+    try {
+      writer.write(statements);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    out.flush();
   }
 
-  // error handler
-  static void error(int line, String message) {
-    report(line, "", message);
+  // `lox --print-ir <FILENAME>`, the optimized graph `--ir` would run
+  private static void printIr(String path) throws IOException {
+    byte[] bytes = Files.readAllBytes(Paths.get(path));
+    List<Stmt> statements = parse(new String(bytes, Charset.defaultCharset()));
+    if (hadError) System.exit(65);
+
+    Ir graph = IrBuilder.lower(statements);
+    IrOptimizer optimizer = IrOptimizer.optimize(graph);
+    System.out.print(graph);
+    err.printf("%d common subexpressions, %d dead stores, %d branches " +
+            "folded, %d unreachable blocks%n", optimizer.commonSubexpressions,
+            optimizer.deadStores, optimizer.foldedBranches,
+            optimizer.unreachableBlocks);
   }
 
-  private static void report(int line, String where, String message) {
-    System.err.println(
-            "[line " + line + "] Error " + where + ": " + message);
-    hadError = true;
+  private static void snapshot(String path) {
+    try {
+      Snapshot.write(interpreter.globals, Paths.get(path));
+    } catch (IOException e) {
+      err.println("Could not write snapshot: " + e.getMessage());
+    }
   }
 
-  static void error(Token token, String message) {
-    if (token.type == TokenType.EOF) {
-      report(token.line, " at end", message);
-    } else {
-      report(token.line, " at '" + token.lexeme + "'", message);
+  private static void restore(String path) {
+    long start = System.nanoTime();
+    try {
+      int globals = Snapshot.restore(Paths.get(path), interpreter.globals);
+      if (System.getenv("JLOX_VERBOSE") != null) {
+        err.printf("restored %d globals in %.1f ms%n", globals,
+                (System.nanoTime() - start) / 1e6);
+      }
+    } catch (IOException e) {
+      err.println(e.getMessage());
+      System.exit(65);
+    }
+  }
+
+  private static void dumpTrace() throws IOException {
+    if (trace == null) return;
+    ((TracingInterpreter) interpreter).trace.dump(Paths.get(trace));
+  }
+
+  private static void reportTiers() {
+    if (tierUp < 0) return;
+    ((TieredInterpreter) interpreter).report(err);
+  }
+
+  // false if the source didn't parse, so nothing ran
+  private static boolean run(String source) throws IOException {
+    if (pipeline) return Pipeline.run(source, interpreter);
+    List<Stmt> statements = parse(source);
+    if (hadError) return false;
+    if (coverageFile != null) coverage.track(statements, source);
+    if (feedbackFile != null) {
+      feedback.attach(statements);
+      feedback.load(Paths.get(feedbackFile));
+    }
+    if (ir) {
+      Ir graph = IrBuilder.lower(statements);
+      IrOptimizer.optimize(graph);
+      new IrInterpreter(interpreter, System.out).interpret(graph);
+      return true;
+    }
+    if (profile == null) {
+      interpreter.interpret(statements);
+      return true;
+    }
+
+    Profiler profiler = new Profiler(interpreter, statements,
+            Profiler.DEFAULT_INTERVAL_NANOS);
+    profiler.start();
+    interpreter.interpret(statements);
+    try {
+      profiler.stop();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    profiler.report(System.err);
+    if (!profile.isEmpty()) profiler.writeCollapsed(Paths.get(profile));
+    return true;
+  }
+
+  // lex and parse, then report whatever errors were collected on the way
+  static List<Stmt> parse(String source) {
+    List<Diagnostic> diagnostics = new ArrayList<>();
+    LoxEvents.Phase lexing = LoxEvents.enabled ? new LoxEvents.Phase() : null;
+    if (lexing != null) lexing.begin();
+    // lexical analysis, breaking a source into tokens
+    List<Token> tokens = parallelLex
+            ? new ParallelLexer(source, diagnostics).lexTokens()
+            : new Lexer(source, diagnostics).lexTokens();
+    LoxEvents.Phase parsing = null;
+    if (lexing != null) {
+      lexing.end();
+      lexing.phase = "lex";
+      lexing.characters = source.length();
+      lexing.tokens = tokens.size();
+      lexing.commit();
+      parsing = new LoxEvents.Phase();
+      parsing.begin();
+    }
+    List<Stmt> statements = parallelParse
+            ? new ParallelParser(tokens, diagnostics).parse()
+            : new Parser(tokens, diagnostics).parse();
+    if (parsing != null) {
+      parsing.end();
+      parsing.phase = "parse";
+      parsing.characters = source.length();
+      parsing.tokens = tokens.size();
+      parsing.statements = statements.size();
+      parsing.commit();
+    }
+    report(diagnostics);
+    if (!diagnostics.isEmpty()) return statements;
+    // fuse common loop idioms, then cache what the loops don't change
+    return LoopInvariants.apply(Superinstructions.apply(statements));
+  }
+
+  // error handler
+  static void report(List<Diagnostic> diagnostics) {
+    for (Diagnostic diagnostic : diagnostics) {
+      err.println(diagnostic);
     }
+    if (!diagnostics.isEmpty()) hadError = true;
   }
 
   static void runtimeError(RuntimeError error) {
-    System.err.println(error.getMessage() +
-            "\n[line " + error.token.line + "]");
+    err.println(error.getMessage() +
+            "\n[line " + error.line + "]");
     hadRuntimeError = true;
   }
 
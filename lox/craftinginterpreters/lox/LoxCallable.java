@@ -0,0 +1,33 @@
+package craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+// anything a call expression can call. the interpreter checks the arity
+// first, then passes up to three arguments directly to the matching
+// overload so no argument list gets built; implementations that don't
+// care can just implement the list version
+interface LoxCallable {
+  int arity();
+
+  Object call(Interpreter interpreter, List<Object> arguments)
+          throws RuntimeError;
+
+  default Object call(Interpreter interpreter) throws RuntimeError {
+    return call(interpreter, Arrays.asList());
+  }
+
+  default Object call(Interpreter interpreter, Object a) throws RuntimeError {
+    return call(interpreter, Arrays.asList(a));
+  }
+
+  default Object call(Interpreter interpreter, Object a, Object b)
+          throws RuntimeError {
+    return call(interpreter, Arrays.asList(a, b));
+  }
+
+  default Object call(Interpreter interpreter, Object a, Object b, Object c)
+          throws RuntimeError {
+    return call(interpreter, Arrays.asList(a, b, c));
+  }
+}
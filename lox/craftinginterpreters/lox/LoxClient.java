@@ -0,0 +1,63 @@
+package craftinginterpreters.lox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+// `jlox --client <socket> <script|->` hands a script to a running
+// `jlox --server` and relays its output. kept tiny on purpose: it never
+// touches the lexer, parser or interpreter, so it starts as fast as a JVM can.
+class LoxClient {
+  // returns the exit status of the script as reported by the server
+  static int run(String socketPath, String script) throws IOException {
+    byte kind;
+    byte[] payload;
+    if (script.equals("-")) {     // `-` means read the source from stdin
+      kind = LoxServer.REQUEST_SOURCE;
+      payload = System.in.readAllBytes();
+    } else {
+      // the server has its own working directory, so send an absolute path
+      kind = LoxServer.REQUEST_PATH;
+      payload = Paths.get(script).toAbsolutePath().toString()
+              .getBytes(StandardCharsets.UTF_8);
+    }
+
+    UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socketPath);
+    try (SocketChannel channel = SocketChannel.open(address)) {
+      DataOutputStream out =
+              new DataOutputStream(Channels.newOutputStream(channel));
+      out.writeByte(kind);
+      out.writeInt(payload.length);
+      out.write(payload);
+      out.flush();
+
+      DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+      for (; ; ) {
+        byte type = in.readByte();
+        byte[] frame = new byte[in.readInt()];
+        in.readFully(frame);
+
+        switch (type) {
+          case LoxServer.FRAME_OUT:
+            System.out.write(frame);
+            System.out.flush();
+            break;
+          case LoxServer.FRAME_ERR:
+            System.err.write(frame);
+            System.err.flush();
+            break;
+          case LoxServer.FRAME_EXIT:
+            return ((frame[0] & 0xff) << 24) | ((frame[1] & 0xff) << 16) |
+                    ((frame[2] & 0xff) << 8) | (frame[3] & 0xff);
+          default:
+            throw new IOException("Unknown frame type " + type + ".");
+        }
+      }
+    }
+  }
+}
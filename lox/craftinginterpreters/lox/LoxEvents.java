@@ -0,0 +1,80 @@
+package craftinginterpreters.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// Java Flight Recorder events for `jlox --jfr`, to line script behavior up
+// with GC and CPU data. nothing is emitted without the flag; with it the
+// events go to whatever recording is running, e.g. one started with
+// -XX:StartFlightRecording. the slow statement threshold is a normal JFR
+// setting: `lox.SlowStatement#threshold=50 ms` in a .jfc file.
+class LoxEvents {
+  static boolean enabled = false;     // set by `--jfr`
+
+  @Name("lox.Phase")
+  @Label("Lox Phase")
+  @Category("Lox")
+  @StackTrace(false)
+  static class Phase extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Source Characters")
+    @Description("UTF-16 chars, what the lexer walks, not encoded bytes")
+    long characters;
+
+    @Label("Tokens")
+    int tokens;
+
+    @Label("Statements")
+    @Description("parsed for lex/parse, executed for interpret")
+    long statements;
+  }
+
+  @Name("lox.RuntimeError")
+  @Label("Lox Runtime Error")
+  @Category("Lox")
+  @StackTrace(false)
+  static class ScriptError extends Event {
+    @Label("Message")
+    String message;
+
+    @Label("Line")
+    int line;
+  }
+
+  @Name("lox.EnvironmentDepth")
+  @Label("Lox Environment Depth")
+  @Category("Lox")
+  @Description("how deep the environment chain was at each block entry")
+  @StackTrace(false)
+  static class EnvironmentDepth extends Event {
+    @Label("Blocks Entered")
+    long blocks;
+
+    @Label("Max Depth")
+    int maxDepth;
+
+    @Label("Histogram")
+    @Description("depth:count pairs, depths past 63 counted as 63")
+    String histogram;
+  }
+
+  @Name("lox.SlowStatement")
+  @Label("Lox Slow Statement")
+  @Category("Lox")
+  @Threshold("20 ms")
+  @StackTrace(false)
+  static class SlowStatement extends Event {
+    @Label("Line")
+    int line;
+
+    @Label("Statement")
+    String statement;
+  }
+}
@@ -0,0 +1,227 @@
+package craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// `jlox --server <socket>` keeps one warmed-up JVM around and runs scripts
+// sent by `jlox --client`, so we only pay JVM startup / JIT warm-up once.
+//
+// wire format (all ints big-endian, as written by DataOutputStream)
+//   request:  [byte kind][int length][length bytes of UTF-8]
+//             kind is REQUEST_PATH (payload is an absolute path) or
+//             REQUEST_SOURCE (payload is the script itself)
+//   response: a sequence of frames [byte type][int length][bytes]
+//             FRAME_OUT / FRAME_ERR carry stdout / stderr text, FRAME_EXIT
+//             carries a 4 byte exit status and ends the response
+//
+// a request with an unknown kind or a length outside 0..MAX_REQUEST gets
+// an error frame and exit status 64. a request that blows up in the
+// parser or the interpreter, a stack overflow from deep nesting say, gets
+// 65 or 70 like any other error there, and the server carries on.
+//
+// requests are served one at a time: the error flags in `Lox` are static, so
+// this keeps each run isolated without touching the rest of the pipeline.
+// every request gets a fresh Interpreter, only parsed ASTs are shared.
+class LoxServer {
+  static final byte REQUEST_PATH = 1;
+  static final byte REQUEST_SOURCE = 2;
+
+  static final byte FRAME_OUT = 1;
+  static final byte FRAME_ERR = 2;
+  static final byte FRAME_EXIT = 3;
+
+  static final int MAX_REQUEST = 64 << 20;    // bytes of payload
+
+  // parsed programs keyed by path, reused while the file is unchanged
+  private final Map<Path, CachedProgram> cache = new HashMap<>();
+  private final Path socketPath;
+  private final Budget budget;      // applied to every request
+
+  private static class CachedProgram {
+    CachedProgram(FileTime modified, long size, List<Stmt> statements) {
+      this.modified = modified;
+      this.size = size;
+      this.statements = statements;
+    }
+
+    final FileTime modified;
+    final long size;
+    final List<Stmt> statements;
+  }
+
+  LoxServer(String socketPath, Budget budget) {
+    this.socketPath = Paths.get(socketPath);
+    this.budget = budget;
+  }
+
+  void serve() throws IOException {
+    Files.deleteIfExists(socketPath);   // stale socket from a previous run
+    UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socketPath);
+
+    try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      server.bind(address);
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          Files.deleteIfExists(socketPath);
+        } catch (IOException ignored) {
+        }
+      }));
+      System.err.println("jlox server listening on " + socketPath);
+
+      for (; ; ) {
+        try (SocketChannel client = server.accept()) {
+          handle(client);
+        } catch (IOException e) {
+          // a client hanging up mid-request shouldn't take the server down
+          System.err.println("jlox server: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  private void handle(SocketChannel channel) throws IOException {
+    DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+    DataOutputStream frames =
+            new DataOutputStream(Channels.newOutputStream(channel));
+
+    byte kind = in.readByte();
+    int length = in.readInt();
+
+    PrintStream out = framePrinter(frames, FRAME_OUT);
+    PrintStream err = framePrinter(frames, FRAME_ERR);
+    int status;
+    if (length < 0 || length > MAX_REQUEST) {
+      // never allocate what the client asks for before checking it
+      err.println("jlox server: request length " + length +
+              " outside 0.." + MAX_REQUEST);
+      status = 64;
+    } else {
+      byte[] payload = new byte[length];
+      in.readFully(payload);
+      if (kind != REQUEST_PATH && kind != REQUEST_SOURCE) {
+        err.println("jlox server: unknown request kind " + kind);
+        status = 64;
+      } else {
+        status = run(kind, new String(payload, StandardCharsets.UTF_8), out,
+                err);
+      }
+    }
+    out.flush();
+    err.flush();
+
+    frames.writeByte(FRAME_EXIT);
+    frames.writeInt(4);
+    frames.writeInt(status);
+    frames.flush();
+  }
+
+  private int run(byte kind, String payload, PrintStream out, PrintStream err) {
+    PrintStream previousErr = Lox.err;
+    Lox.err = err;
+    Lox.hadError = false;
+    Lox.hadRuntimeError = false;
+    try {
+      List<Stmt> statements;
+      try {
+        if (kind == REQUEST_PATH) {
+          statements = load(Paths.get(payload), err);
+          if (statements == null) return 66;
+        } else {
+          statements = Lox.parse(payload);
+        }
+      } catch (RuntimeException | StackOverflowError failure) {
+        err.println("jlox server: parsing failed: " + failure);
+        return 65;
+      }
+      if (Lox.hadError) return 65;
+
+      try {
+        new Interpreter(out, budget).interpret(statements);
+      } catch (RuntimeException | StackOverflowError failure) {
+        err.println("jlox server: running failed: " + failure);
+        return 70;
+      }
+      if (Lox.hadRuntimeError) return 70;
+      return 0;
+    } finally {
+      Lox.err = previousErr;
+    }
+  }
+
+  // returns the cached AST if the file hasn't changed, otherwise re-parses
+  private List<Stmt> load(Path path, PrintStream err) {
+    try {
+      FileTime modified = Files.getLastModifiedTime(path);
+      long size = Files.size(path);
+
+      CachedProgram cached = cache.get(path);
+      if (cached != null && cached.modified.equals(modified)
+              && cached.size == size) {
+        return cached.statements;
+      }
+
+      byte[] bytes = Files.readAllBytes(path);
+      List<Stmt> statements =
+              Lox.parse(new String(bytes, Charset.defaultCharset()));
+      if (Lox.hadError) {
+        cache.remove(path);   // never cache a program that didn't parse
+      } else {
+        cache.put(path, new CachedProgram(modified, size, statements));
+      }
+      return statements;
+    } catch (IOException e) {
+      err.println("Could not read '" + path + "': " + e.getMessage());
+      return null;
+    }
+  }
+
+  // a PrintStream that turns every flush into one frame of the given type
+  private static PrintStream framePrinter(DataOutputStream frames, byte type) {
+    OutputStream framed = new OutputStream() {
+      private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+      @Override
+      public void write(int b) {
+        pending.write(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        pending.write(b, off, len);
+      }
+
+      @Override
+      public void flush() throws IOException {
+        if (pending.size() == 0) return;
+        synchronized (frames) {
+          frames.writeByte(type);
+          frames.writeInt(pending.size());
+          pending.writeTo(frames);
+          frames.flush();
+        }
+        pending.reset();
+      }
+    };
+    // autoflush: every println streams straight back to the client
+    return new PrintStream(framed, true, StandardCharsets.UTF_8);
+  }
+}
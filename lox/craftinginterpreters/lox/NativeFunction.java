@@ -0,0 +1,151 @@
+package craftinginterpreters.lox;
+
+import java.util.List;
+
+// a builtin written in Java, see Natives. the body takes its arguments as
+// plain parameters and overrides the fixed-arity call, so calling a native
+// allocates nothing beyond what the body itself returns
+abstract class NativeFunction implements LoxCallable {
+  interface Body0 {
+    Object call();
+  }
+
+  interface Body1 {
+    Object call(Object a);
+  }
+
+  interface Body2 {
+    Object call(Object a, Object b);
+  }
+
+  interface Body3 {
+    Object call(Object a, Object b, Object c);
+  }
+
+  // for a body that allocates: it's handed the interpreter so it can check
+  // the allocation against the memory limit first, see Interpreter.reserve()
+  interface Allocating1 {
+    Object call(Interpreter interpreter, Object a);
+  }
+
+  interface Allocating2 {
+    Object call(Interpreter interpreter, Object a, Object b);
+  }
+
+  // thrown by a body for arguments it can't take, the interpreter turns it
+  // into a RuntimeError at the call. stackless, like RuntimeError
+  static class Failure extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    Failure(String message) {
+      super(message, null, false, false);
+    }
+  }
+
+  final Symbol name;
+  private final int arity;
+
+  private NativeFunction(String name, int arity) {
+    this.name = Symbol.intern(name);
+    this.arity = arity;
+  }
+
+  static NativeFunction of(String name, Body0 body) {
+    return new NativeFunction(name, 0) {
+      @Override
+      public Object call(Interpreter interpreter) {
+        return body.call();
+      }
+    };
+  }
+
+  static NativeFunction of(String name, Body1 body) {
+    return new NativeFunction(name, 1) {
+      @Override
+      public Object call(Interpreter interpreter, Object a) {
+        return body.call(a);
+      }
+    };
+  }
+
+  static NativeFunction of(String name, Body2 body) {
+    return new NativeFunction(name, 2) {
+      @Override
+      public Object call(Interpreter interpreter, Object a, Object b) {
+        return body.call(a, b);
+      }
+    };
+  }
+
+  static NativeFunction of(String name, Body3 body) {
+    return new NativeFunction(name, 3) {
+      @Override
+      public Object call(Interpreter interpreter, Object a, Object b,
+                         Object c) {
+        return body.call(a, b, c);
+      }
+    };
+  }
+
+  static NativeFunction allocating(String name, Allocating1 body) {
+    return new NativeFunction(name, 1) {
+      @Override
+      public Object call(Interpreter interpreter, Object a) {
+        return body.call(interpreter, a);
+      }
+    };
+  }
+
+  static NativeFunction allocating(String name, Allocating2 body) {
+    return new NativeFunction(name, 2) {
+      @Override
+      public Object call(Interpreter interpreter, Object a, Object b) {
+        return body.call(interpreter, a, b);
+      }
+    };
+  }
+
+  @Override
+  public int arity() {
+    return arity;
+  }
+
+  // only for callers that already have a list
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments)
+          throws RuntimeError {
+    switch (arity) {
+      case 0: return call(interpreter);
+      case 1: return call(interpreter, arguments.get(0));
+      case 2: return call(interpreter, arguments.get(0), arguments.get(1));
+      default: return call(interpreter, arguments.get(0), arguments.get(1),
+              arguments.get(2));
+    }
+  }
+
+  // argument checks for bodies
+  static double number(Object value) {
+    if (value instanceof Double) return (double) value;
+    throw new Failure("Argument must be a number.");
+  }
+
+  // a String or a SourceSlice
+  static CharSequence string(Object value) {
+    if (value instanceof CharSequence) return (CharSequence) value;
+    throw new Failure("Argument must be a string.");
+  }
+
+  // a number that's used as a count or an index
+  static int integer(Object value) {
+    double number = number(value);
+    if (number != Math.rint(number) || Math.abs(number) > Integer.MAX_VALUE) {
+      throw new Failure("Argument must be a whole number.");
+    }
+    return (int) number;
+  }
+
+  @Override
+  public String toString() {
+    return "<native fn>";
+  }
+}
@@ -0,0 +1,165 @@
+package craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import static craftinginterpreters.lox.NativeFunction.allocating;
+import static craftinginterpreters.lox.NativeFunction.integer;
+import static craftinginterpreters.lox.NativeFunction.number;
+import static craftinginterpreters.lox.NativeFunction.of;
+import static craftinginterpreters.lox.NativeFunction.string;
+
+// the builtins bound into every interpreter's globals. they're stateless,
+// so one set is shared by every interpreter and thread
+class Natives {
+  // a string under construction: builder(), append(b, x), build(b).
+  // appending is amortized O(1) where `s = s + x` in a loop is quadratic
+  static class Builder {
+    final StringBuilder text = new StringBuilder();
+    int charged = 0;    // characters already counted against a memory limit
+
+    @Override
+    public String toString() {
+      return text.toString();
+    }
+  }
+
+  // a fixed-length array of numbers: array(n), a[i], a[i] = x, len(a).
+  // the elements are stored unboxed, n numbers take 8n bytes
+  static class Array {
+    final double[] values;
+
+    Array(int length) {
+      this.values = new double[length];
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder text = new StringBuilder("[");
+      for (int i = 0; i < values.length; i++) {
+        if (i > 0) text.append(", ");
+        text.append(Interpreter.stringify(values[i]));
+      }
+      return text.append("]").toString();
+    }
+  }
+
+  // the most elements a JVM will allocate in one array
+  static final int MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+  // the most characters a String holds once any of them needs two bytes
+  static final int MAX_STRING = (Integer.MAX_VALUE - 8) / 2;
+
+  static final List<NativeFunction> ALL = List.of(
+          // timing
+          of("clock", () -> System.currentTimeMillis() / 1000.0),
+          of("nanos", () -> (double) System.nanoTime()),
+
+          // math
+          math("abs", Math::abs),
+          math("ceil", Math::ceil),
+          math("cos", Math::cos),
+          math("exp", Math::exp),
+          math("floor", Math::floor),
+          math("log", Math::log),
+          math("round", x -> (double) Math.round(x)),
+          math("sin", Math::sin),
+          math("sqrt", Math::sqrt),
+          math("max", Math::max),
+          math("min", Math::min),
+          math("mod", (x, y) -> x % y),
+          math("pow", Math::pow),
+          of("random", () -> ThreadLocalRandom.current().nextDouble()),
+
+          // strings
+          of("str", x -> x instanceof CharSequence
+                  ? x : Interpreter.stringify(x)),
+          of("num", s -> {
+            try {
+              return Double.parseDouble(string(s).toString());
+            } catch (NumberFormatException e) {
+              return null;
+            }
+          }),
+          of("len", s -> s instanceof Array
+                  ? (double) ((Array) s).values.length
+                  : (double) string(s).length()),
+          of("indexOf", (s, part) ->
+                  (double) SourceSlice.indexOf(string(s), string(part))),
+          of("substr", (s, from, to) -> {
+            CharSequence text = string(s);
+            int start = integer(from);
+            int end = integer(to);
+            if (start < 0 || end > text.length() || start > end) {
+              throw new NativeFunction.Failure("Index out of range.");
+            }
+            return text.subSequence(start, end);
+          }),
+          allocating("repeat", (interpreter, s, count) -> {
+            int times = integer(count);
+            if (times < 0) throw new NativeFunction.Failure("Negative count.");
+            String text = string(s).toString();
+            interpreter.reserve(2 * stringLength((long) text.length() * times));
+            return text.repeat(times);
+          }),
+          of("builder", Builder::new),
+          allocating("append", (interpreter, builder, value) -> {
+            if (!(builder instanceof Builder)) {
+              throw new NativeFunction.Failure("Argument must be a builder.");
+            }
+            Builder growing = (Builder) builder;
+            CharSequence part = value instanceof CharSequence
+                    ? (CharSequence) value : Interpreter.stringify(value);
+            long length = stringLength((long) growing.text.length() +
+                    part.length());
+            // what the builder has grown since its last charge, and this
+            interpreter.reserve(2 * (length - growing.charged));
+            SourceSlice.append(growing.text, part);
+            return builder;
+          }),
+          allocating("build", (interpreter, builder) -> {
+            if (!(builder instanceof Builder)) {
+              throw new NativeFunction.Failure("Argument must be a builder.");
+            }
+            interpreter.reserve(2L * ((Builder) builder).text.length());
+            return builder.toString();
+          }),
+
+          // arrays
+          allocating("array", (interpreter, n) -> {
+            int length = integer(n);
+            if (length < 0) throw new NativeFunction.Failure("Negative length.");
+            if (length > MAX_ARRAY) {
+              throw new NativeFunction.Failure("Array too long.");
+            }
+            interpreter.reserve(8L * length);
+            return new Array(length);
+          })
+  );
+
+  // the length of a string about to be made, refused if no String can hold
+  // it. checked in a long, `length * times` can overflow an int
+  private static long stringLength(long length) {
+    if (length > MAX_STRING) {
+      throw new NativeFunction.Failure("String too long.");
+    }
+    return length;
+  }
+
+  // unboxes its argument once and boxes only the result
+  private static NativeFunction math(String name, DoubleUnaryOperator op) {
+    return of(name, x -> op.applyAsDouble(number(x)));
+  }
+
+  private static NativeFunction math(String name, DoubleBinaryOperator op) {
+    return of(name, (x, y) -> op.applyAsDouble(number(x), number(y)));
+  }
+
+  static void define(Environment globals) {
+    for (NativeFunction function : ALL) {
+      globals.define(function.name, function);
+    }
+  }
+}
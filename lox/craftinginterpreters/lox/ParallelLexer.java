@@ -0,0 +1,130 @@
+package craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static craftinginterpreters.lox.TokenType.EOF;
+
+// lexes a large source in chunks on a ForkJoinPool, producing exactly the
+// tokens and diagnostics of the sequential Lexer.
+//
+// chunks end just after a newline. comments stop at a newline, so the
+// only thing that can straddle a cut is a multi-line string. that makes
+// two parallel passes:
+//   1. count each chunk's newlines, so every chunk knows its first line
+//   2. lex each chunk speculatively, assuming it doesn't start inside a
+//      string. a chunk whose lexer reaches its end inside a string stops
+//      there and remembers where the string opened
+// then, in order, the chunks are stitched together. when a string was
+// left open, lexing resumes from its opening quote, this time letting it
+// run on past the cut, and whatever chunks it swallowed (wholly or
+// partly) are rescanned from where it closed rather than trusted.
+class ParallelLexer {
+  static final int DEFAULT_CHUNK_CHARS = 1 << 18;
+
+  private final String source;
+  private final List<Diagnostic> diagnostics;
+  private final ForkJoinPool pool;
+  private final int chunkChars;
+
+  ParallelLexer(String source, List<Diagnostic> diagnostics) {
+    this(source, diagnostics, ForkJoinPool.commonPool(), DEFAULT_CHUNK_CHARS);
+  }
+
+  ParallelLexer(String source, List<Diagnostic> diagnostics,
+                ForkJoinPool pool, int chunkChars) {
+    this.source = source;
+    this.diagnostics = diagnostics;
+    this.pool = pool;
+    this.chunkChars = chunkChars;
+  }
+
+  List<Token> lexTokens() {
+    List<Integer> cuts = cuts();
+    if (cuts.size() <= 2) return new Lexer(source, diagnostics).lexTokens();
+    int chunks = cuts.size() - 1;
+
+    List<ForkJoinTask<Integer>> counting = new ArrayList<>();
+    for (int i = 0; i < chunks; i++) {
+      int from = cuts.get(i);
+      int to = cuts.get(i + 1);
+      counting.add(pool.submit(() -> newlines(from, to)));
+    }
+    int[] firstLine = new int[chunks];
+    firstLine[0] = 1;
+    for (int i = 1; i < chunks; i++) {
+      firstLine[i] = firstLine[i - 1] + counting.get(i - 1).join();
+    }
+
+    List<List<Diagnostic>> errors = new ArrayList<>();
+    List<ForkJoinTask<Lexer>> lexing = new ArrayList<>();
+    for (int i = 0; i < chunks; i++) {
+      int from = cuts.get(i);
+      int to = cuts.get(i + 1);
+      int line = firstLine[i];
+      List<Diagnostic> chunkErrors = new ArrayList<>();
+      errors.add(chunkErrors);
+      lexing.add(pool.submit(() -> {
+        Lexer lexer = new Lexer(source, from, to, line, false, chunkErrors);
+        lexer.lexRange();
+        return lexer;
+      }));
+    }
+
+    List<Token> tokens = new ArrayList<>();
+    int position = 0;
+    int line = 1;
+    for (int i = 0; i < chunks; i++) {
+      int from = cuts.get(i);
+      int to = cuts.get(i + 1);
+      Lexer lexer = lexing.get(i).join();
+      if (to <= position) continue;     // all inside an earlier string
+
+      if (from == position) {
+        // resumed right at the cut, outside a string: speculation holds
+        tokens.addAll(lexer.lexRange());      // already lexed, no work
+        diagnostics.addAll(errors.get(i));
+        position = lexer.position();
+        line = lexer.line();
+        if (lexer.openString() < 0) continue;
+        position = lexer.openString();
+        line = lexer.openStringLine();
+      }
+
+      // from the quote of a string left open, or from wherever an earlier
+      // string closed inside this chunk
+      Lexer rescan = new Lexer(source, position, to, line, true, diagnostics);
+      tokens.addAll(rescan.lexRange());
+      position = rescan.position();
+      line = rescan.line();
+    }
+
+    tokens.add(new Token(EOF, "", null, line));
+    return tokens;
+  }
+
+  // chunk boundaries, each just after a newline, then the end of source
+  private List<Integer> cuts() {
+    List<Integer> cuts = new ArrayList<>();
+    cuts.add(0);
+    int from = 0;
+    while (from + chunkChars < source.length()) {
+      int newline = source.indexOf('\n', from + chunkChars);
+      if (newline < 0 || newline + 1 >= source.length()) break;
+      from = newline + 1;
+      cuts.add(from);
+    }
+    cuts.add(source.length());
+    return cuts;
+  }
+
+  private int newlines(int from, int to) {
+    int count = 0;
+    for (int i = from; i < to; i++) {
+      if (source.charAt(i) == '\n') count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,151 @@
+package craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static craftinginterpreters.lox.TokenType.*;
+
+// parses the top-level statements of a program concurrently. the token
+// list is cut after a `;` or `}` at brace and paren depth zero that isn't
+// followed by `else`, which in a valid program is exactly where a
+// top-level statement ends. runs of statements of at least `chunkTokens`
+// tokens are parsed as chunks on a ForkJoinPool, then stitched back
+// together in order, with coverage slots renumbered as if one Parser had
+// handed them out.
+//
+// error recovery can run across a cut, so as soon as any chunk has an
+// error the whole program is parsed again sequentially and only that
+// parse reports. diagnostics are then exactly the Parser's, in the same
+// order, and valid programs never pay for it.
+class ParallelParser {
+  static final int DEFAULT_CHUNK_TOKENS = 1 << 14;
+
+  private final List<Token> tokens;
+  private final List<Diagnostic> diagnostics;
+  private final ForkJoinPool pool;
+  private final int chunkTokens;
+
+  ParallelParser(List<Token> tokens, List<Diagnostic> diagnostics) {
+    this(tokens, diagnostics, ForkJoinPool.commonPool(), DEFAULT_CHUNK_TOKENS);
+  }
+
+  ParallelParser(List<Token> tokens, List<Diagnostic> diagnostics,
+                 ForkJoinPool pool, int chunkTokens) {
+    this.tokens = tokens;
+    this.diagnostics = diagnostics;
+    this.pool = pool;
+    this.chunkTokens = chunkTokens;
+  }
+
+  // a chunk's statements and how many coverage slots its Parser used
+  private static class Chunk {
+    final List<Stmt> statements;
+    final int slots;
+    final boolean hadError;
+
+    Chunk(List<Stmt> statements, int slots, boolean hadError) {
+      this.statements = statements;
+      this.slots = slots;
+      this.hadError = hadError;
+    }
+  }
+
+  List<Stmt> parse() {
+    List<Integer> cuts = cuts();
+    if (cuts.size() <= 2) return new Parser(tokens, diagnostics).parse();
+
+    List<ForkJoinTask<Chunk>> tasks = new ArrayList<>();
+    for (int i = 0; i + 1 < cuts.size(); i++) {
+      int from = cuts.get(i);
+      int to = cuts.get(i + 1);
+      tasks.add(pool.submit(() -> parse(from, to)));
+    }
+    List<Chunk> chunks = new ArrayList<>();
+    boolean hadError = false;
+    for (ForkJoinTask<Chunk> task : tasks) {
+      Chunk chunk = task.join();
+      chunks.add(chunk);
+      hadError |= chunk.hadError;
+    }
+    if (hadError) return new Parser(tokens, diagnostics).parse();
+
+    // every chunk numbered its slots from 1, shift them past the earlier
+    // chunks' slots
+    List<ForkJoinTask<?>> renumbering = new ArrayList<>();
+    List<Stmt> statements = new ArrayList<>();
+    int offset = 0;
+    for (Chunk chunk : chunks) {
+      if (offset > 0) {
+        int shift = offset;
+        renumbering.add(pool.submit(() -> {
+          for (Stmt stmt : chunk.statements) renumber(stmt, shift);
+        }));
+      }
+      offset += chunk.slots;
+      statements.addAll(chunk.statements);
+    }
+    for (ForkJoinTask<?> task : renumbering) task.join();
+    return statements;
+  }
+
+  private Chunk parse(int from, int to) {
+    List<Diagnostic> errors = new ArrayList<>();
+    Parser parser = new Parser(slice(from, to), errors);
+    List<Stmt> statements = parser.parse();
+    return new Chunk(statements, parser.slots(), !errors.isEmpty());
+  }
+
+  // token indexes where chunks start, followed by the index of the EOF
+  private List<Integer> cuts() {
+    List<Integer> cuts = new ArrayList<>();
+    cuts.add(0);
+    int end = tokens.size() - 1;
+    int braces = 0;
+    int parens = 0;
+    int start = 0;
+    for (int i = 0; i < end; i++) {
+      TokenType type = tokens.get(i).type;
+      switch (type) {
+        case LEFT_BRACE: braces++; break;
+        case RIGHT_BRACE: braces--; break;
+        case LEFT_PAREN: parens++; break;
+        case RIGHT_PAREN: parens--; break;
+        default: break;
+      }
+      if ((type == SEMICOLON || type == RIGHT_BRACE)
+              && braces == 0 && parens == 0
+              && tokens.get(i + 1).type != ELSE
+              && i + 1 - start >= chunkTokens) {
+        start = i + 1;
+        if (start < end) cuts.add(start);
+      }
+    }
+    cuts.add(end);
+    return cuts;
+  }
+
+  // tokens [from, to) followed by the program's EOF. copied rather than
+  // wrapped in a view: a second List class at Parser's tokens.get() call
+  // site costs the JIT more than the copy does, in every Parser
+  private List<Token> slice(int from, int to) {
+    List<Token> slice = new ArrayList<>(to - from + 1);
+    slice.addAll(tokens.subList(from, to));
+    slice.add(tokens.get(tokens.size() - 1));
+    return slice;
+  }
+
+  private static void renumber(Stmt stmt, int shift) {
+    if (stmt == null) return;
+    stmt.slot += shift;
+    if (stmt instanceof Stmt.Block) {
+      for (Stmt inner : ((Stmt.Block) stmt).statements) renumber(inner, shift);
+    } else if (stmt instanceof Stmt.If) {
+      renumber(((Stmt.If) stmt).thenBranch, shift);
+      renumber(((Stmt.If) stmt).elseBranch, shift);
+    } else if (stmt instanceof Stmt.While) {
+      renumber(((Stmt.While) stmt).body, shift);
+    }
+  }
+}
@@ -3,18 +3,38 @@ package craftinginterpreters.lox;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import static craftinginterpreters.lox.TokenType.*;
 
 class Parser {
-  private static class ParseError extends RuntimeException {
-  }
+  // stands in for the expression we failed to parse, never executed
+  private static final Expr ERROR_EXPR = new Expr.Literal(null);
 
   private final List<Token> tokens;
+  private final List<Diagnostic> diagnostics;
   private int current = 0;
+  // set by the first error in a statement. instead of throwing, every
+  // check() fails from then on so the parser unwinds without consuming
+  // tokens, and declaration() resynchronizes from where the error happened
+  private boolean panicMode = false;
+  private int slots = 0;      // coverage slots handed out so far, see Stmt
+  // for IncrementalParser: every error-free `{}` block, with the token
+  // index each of its declarations starts at and then that of its `}`
+  private final Map<Stmt.Block, int[]> blocks;
+
+  Parser(List<Token> tokens, List<Diagnostic> diagnostics) {
+    this(tokens, diagnostics, 0, 0, null);
+  }
 
-  Parser(List<Token> tokens) {
+  // parses on from token `from`, numbering slots on from `slots`
+  Parser(List<Token> tokens, List<Diagnostic> diagnostics, int from,
+         int slots, Map<Stmt.Block, int[]> blocks) {
     this.tokens = tokens;
+    this.diagnostics = diagnostics;
+    this.current = from;
+    this.slots = slots;
+    this.blocks = blocks;
   }
 
   List<Stmt> parse() {
@@ -26,39 +46,88 @@ class Parser {
     return statements;
   }
 
+  int slots() {
+    return slots;
+  }
+
+  // one declaration at a time, for IncrementalParser. null if it failed
+  Stmt nextDeclaration() {
+    return declaration();
+  }
+
+  // at a `}` or the end, where a block's declarations stop
+  boolean atBlockEnd() {
+    return check(RIGHT_BRACE) || isAtEnd();
+  }
+
+  boolean atEnd() {
+    return isAtEnd();
+  }
+
+  int position() {
+    return current;
+  }
+
   private Expr expression() {
     return assignment();
   }
 
   private Stmt declaration() {
-    try {
-      if (match(VAR)) return varDeclaration();
-
-      return statement();
-    } catch (ParseError error) {
+    Token start = peek();
+    Stmt stmt = match(VAR) ? at(start, varDeclaration()) : statement();
+    if (panicMode) {
       synchronize();
       return null;
     }
+    return stmt;
   }
 
   private Stmt statement() {
-    if (match(FOR)) return forStatement();
-    if (match(IF)) return ifStatement();
-    if (match(PRINT)) return printStatement();
-    if (match(WHILE)) return whileStatement();
-    if (match(LEFT_BRACE)) return new Stmt.Block(block());
-    return expressionStatement();
+    Token start = peek();
+    if (match(FOR)) return at(start, forStatement());
+    if (match(IF)) return at(start, ifStatement());
+    if (match(PRINT)) return at(start, printStatement());
+    if (match(WHILE)) return at(start, whileStatement());
+    if (match(LEFT_BRACE)) {
+      if (blocks != null) return at(start, recordedBlock());
+      return at(start, new Stmt.Block(block()));
+    }
+    return at(start, expressionStatement());
+  }
+
+  // block(), noting where its declarations start when it parses cleanly
+  private Stmt.Block recordedBlock() {
+    int errors = diagnostics.size();
+    List<Stmt> statements = new ArrayList<>();
+    int[] starts = new int[4];
+    int count = 0;
+
+    while (!check(RIGHT_BRACE) && !isAtEnd()) {
+      if (count + 1 == starts.length) starts = Arrays.copyOf(starts, count * 2);
+      starts[count++] = current;
+      statements.add(declaration());
+    }
+    starts[count++] = current;
+
+    consume(RIGHT_BRACE, "Expect '}' after block.");
+    Stmt.Block block = new Stmt.Block(statements);
+    if (diagnostics.size() == errors && !panicMode) {
+      blocks.put(block, Arrays.copyOf(starts, count));
+    }
+    return block;
   }
 
   private Stmt forStatement() {
+    Token keyword = previous();
     consume(LEFT_PAREN, "Expect '(' after 'for'.");
     Stmt initializer;
+    Token initializerStart = peek();
     if (match(SEMICOLON)) {
       initializer = null;
     } else if (match(VAR)) {
-      initializer = varDeclaration();
+      initializer = at(initializerStart, varDeclaration());
     } else {
-      initializer = expressionStatement();
+      initializer = at(initializerStart, expressionStatement());
     }
 
     Expr condition = null;
@@ -68,6 +137,7 @@ class Parser {
     consume(SEMICOLON, "Expect ';' after loop condition.");
 
     Expr increment = null;
+    Token incrementStart = peek();
     if (!check(RIGHT_PAREN)) {
       increment = expression();
     }
@@ -75,14 +145,15 @@ class Parser {
     Stmt body = statement();
 
     if (increment != null) {
-      body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
+      Stmt step = at(incrementStart, new Stmt.Expression(increment));
+      body = at(keyword, new Stmt.Block(Arrays.asList(body, step)));
     }
 
     if (condition == null) condition = new Expr.Literal(true);
-    body = new Stmt.While(condition, body);
+    body = at(keyword, new Stmt.While(condition, body));
 
     if (initializer != null) {
-      body = new Stmt.Block(Arrays.asList(initializer, body));
+      body = at(keyword, new Stmt.Block(Arrays.asList(initializer, body)));
     }
 
     return body;
@@ -156,9 +227,14 @@ class Parser {
       if (expr instanceof Expr.Variable) {
         Token name = ((Expr.Variable) expr).name;
         return new Expr.Assign(name, value);
+      } else if (expr instanceof Expr.Index) {
+        Expr.Index index = (Expr.Index) expr;
+        return new Expr.IndexSet(index.object, index.bracket, index.index,
+                value);
       }
 
-      error(equals, "Invalid assignment target.");
+      // no need to panic, the parser isn't confused about where it is
+      diagnostics.add(Diagnostic.at(equals, "Invalid assignment target."));
     }
 
     return expr;
@@ -238,7 +314,41 @@ class Parser {
       Expr right = unary();
       return new Expr.Unary(operator, right);
     }
-    return primary();
+    return call();
+  }
+
+  private Expr call() {
+    Expr expr = primary();
+
+    for (; ; ) {
+      if (match(LEFT_PAREN)) {
+        expr = finishCall(expr);
+      } else if (match(LEFT_BRACKET)) {
+        Expr index = expression();
+        Token bracket = consume(RIGHT_BRACKET, "Expect ']' after index.");
+        expr = new Expr.Index(expr, bracket, index);
+      } else {
+        break;
+      }
+    }
+    return expr;
+  }
+
+  private Expr finishCall(Expr callee) {
+    List<Expr> arguments = new ArrayList<>();
+    if (!check(RIGHT_PAREN)) {
+      do {
+        if (arguments.size() >= 255) {
+          // like an invalid assignment target, nothing to recover from
+          diagnostics.add(Diagnostic.at(peek(),
+                  "Can't have more than 255 arguments."));
+        }
+        arguments.add(expression());
+      } while (match(COMMA));
+    }
+
+    Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
+    return new Expr.Call(callee, paren, arguments);
   }
 
   private Expr primary() {
@@ -258,7 +368,18 @@ class Parser {
       return new Expr.Grouping(expr);
     }
 
-    throw error(peek(), "Expect expression.");
+    error(peek(), "Expect expression.");
+    return ERROR_EXPR;
+  }
+
+  // stamp a statement with the line it starts on and its coverage slot
+  private Stmt at(Token start, Stmt stmt) {
+    stmt.line = start.line;
+    if (stmt.slot == 0) {       // desugared `for` loops get stamped twice
+      stmt.slot = ++slots;
+      if (stmt instanceof Stmt.If || stmt instanceof Stmt.While) slots += 2;
+    }
+    return stmt;
   }
 
   private boolean match(TokenType... types) {
@@ -273,16 +394,20 @@ class Parser {
 
   private Token consume(TokenType type, String message) {
     if (check(type)) return advance();
-    throw error(peek(), message);
+    error(peek(), message);
+    return peek();    // placeholder, the statement gets discarded anyway
   }
 
-  private ParseError error(Token token, String message) {
-    Lox.error(token, message);
-    return new ParseError();
+  // only the first error of a statement is reported, the rest are cascades
+  private void error(Token token, String message) {
+    if (panicMode) return;
+    panicMode = true;
+    diagnostics.add(Diagnostic.at(token, message));
   }
 
   // discard tokens until we find a statement boundary
   private void synchronize() {
+    panicMode = false;
     advance();
     while (!isAtEnd()) {
       if (previous().type == SEMICOLON) return;
@@ -303,7 +428,7 @@ class Parser {
   }
 
   private boolean check(TokenType type) {
-    if (isAtEnd()) return false;
+    if (panicMode || isAtEnd()) return false;
     return peek().type == type;
   }
 
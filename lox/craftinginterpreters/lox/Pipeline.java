@@ -0,0 +1,237 @@
+package craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static craftinginterpreters.lox.TokenType.*;
+
+// `jlox --pipeline <script>`: lexing and parsing on a producer thread,
+// overlapped with running. the producer lexes a batch of tokens at a time,
+// cuts them after each complete top-level statement the way ParallelParser
+// does, parses runs of at least `chunkTokens` tokens and passes the
+// statements through a bounded queue. the interpreter runs them as they
+// arrive and lets go of each one once it has run, so memory holds the
+// statements in flight rather than the whole program.
+//
+// a lex or parse error stops the run before the first top-level statement
+// with an error in it, with exactly the diagnostics a plain run reports:
+// the rest of the source is parsed again in one piece from the start of
+// the chunk that failed, and everything before that chunk parsed cleanly,
+// just as it would have in one piece. unlike a plain run, the statements
+// before the bad one run first, however the source happened to be cut
+// into chunks. a runtime error among them ends the run as usual.
+class Pipeline {
+  static final int DEFAULT_CHUNK_TOKENS = 1 << 12;
+  static final int DEFAULT_QUEUE_CHUNKS = 16;
+  private static final int LEX_BATCH = 1 << 12;
+
+  // parsed statements, then the diagnostics if they end the program, or
+  // what killed the producer, thrown again on the running thread
+  private static class Chunk {
+    final List<Stmt> statements;
+    final List<Diagnostic> errors;
+    final Throwable failure;    // an Error or a RuntimeException
+
+    Chunk(List<Stmt> statements, List<Diagnostic> errors) {
+      this(statements, errors, null);
+    }
+
+    Chunk(List<Stmt> statements, List<Diagnostic> errors,
+          Throwable failure) {
+      this.statements = statements;
+      this.errors = errors;
+      this.failure = failure;
+    }
+  }
+
+  private static final Chunk END = new Chunk(new ArrayList<>(), null);
+
+  private final String source;
+  private final int chunkTokens;
+  private final BlockingQueue<Chunk> queue;
+
+  Pipeline(String source, int chunkTokens, int queueChunks) {
+    this.source = source;
+    this.chunkTokens = chunkTokens;
+    this.queue = new ArrayBlockingQueue<>(queueChunks);
+  }
+
+  static boolean run(String source, Interpreter interpreter) {
+    return new Pipeline(source, DEFAULT_CHUNK_TOKENS, DEFAULT_QUEUE_CHUNKS)
+            .run(interpreter);
+  }
+
+  // false if the program had an error, reported like Lox.parse() does.
+  // a runtime error is reported here too
+  boolean run(Interpreter interpreter) {
+    Thread producer = new Thread(this::produce, "lox-pipeline");
+    producer.setDaemon(true);
+    producer.start();
+    try {
+      interpreter.start();
+      for (; ; ) {
+        Chunk chunk = queue.take();
+        if (chunk.failure instanceof Error) throw (Error) chunk.failure;
+        if (chunk.failure != null) throw (RuntimeException) chunk.failure;
+        List<Stmt> statements = chunk.statements;
+        for (int i = 0; i < statements.size(); i++) {
+          Stmt statement = statements.get(i);
+          statements.set(i, null);    // nothing holds on to it once it ran
+          interpreter.execute(statement);
+        }
+        if (chunk.errors != null) {
+          Lox.report(chunk.errors);
+          return false;
+        }
+        if (chunk == END) return true;
+      }
+    } catch (RuntimeError error) {
+      Lox.runtimeError(error);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return true;
+    } finally {
+      producer.interrupt();     // stops it if it's still going
+    }
+  }
+
+  private void produce() {
+    List<Diagnostic> lexErrors = new ArrayList<>();
+    Lexer lexer = new Lexer(source, lexErrors);
+    // tokens from the start of the next chunk on, and how many came before
+    List<Token> pending = new ArrayList<>();
+    int base = 0;
+    int scanned = 0;    // how far into `pending` statement ends were looked for
+    int cut = 0;        // just past the last complete statement in `pending`
+    int braces = 0;
+    int parens = 0;
+    boolean atEof = false;
+    try {
+      while (!atEof) {
+        List<Token> batch = lexer.lexNext(LEX_BATCH);
+        pending.addAll(batch);
+        atEof = pending.get(pending.size() - 1).type == EOF;
+        if (!lexErrors.isEmpty()) {
+          fail(lexer, lexErrors, pending, base);
+          return;
+        }
+
+        // the token after a statement end has to be in, it may be `else`
+        for (; scanned + 1 < pending.size(); scanned++) {
+          TokenType type = pending.get(scanned).type;
+          switch (type) {
+            case LEFT_BRACE: braces++; break;
+            case RIGHT_BRACE: braces--; break;
+            case LEFT_PAREN: parens++; break;
+            case RIGHT_PAREN: parens--; break;
+            default: break;
+          }
+          if ((type == SEMICOLON || type == RIGHT_BRACE)
+                  && braces == 0 && parens == 0
+                  && pending.get(scanned + 1).type != ELSE) {
+            cut = scanned + 1;
+          }
+        }
+        if (!atEof && cut < chunkTokens) continue;
+
+        // everything at the end, else up to the last statement end
+        int to = atEof ? pending.size() : cut;
+        List<Token> tokens = new ArrayList<>(to + 1);
+        tokens.addAll(pending.subList(0, to));
+        if (!atEof) {
+          tokens.add(new Token(EOF, "", null, tokens.get(to - 1).line));
+        }
+        List<Diagnostic> errors = new ArrayList<>();
+        List<Stmt> statements = new Parser(tokens, errors).parse();
+        if (!errors.isEmpty()) {
+          fail(lexer, lexErrors, pending, base);
+          return;
+        }
+        queue.put(new Chunk(optimize(statements), null));
+
+        pending = new ArrayList<>(pending.subList(to, pending.size()));
+        base += to;
+        scanned -= to;
+        cut = 0;
+      }
+      queue.put(END);
+    } catch (InterruptedException e) {
+      // the run ended early, nobody wants the rest
+    } catch (Error | RuntimeException failure) {
+      // a parser stack overflow, say. the running thread is waiting on a
+      // chunk, without one it would wait forever
+      try {
+        queue.put(new Chunk(null, null, failure));
+      } catch (InterruptedException e) {
+        // the run ended early, nobody wants it
+      }
+    }
+  }
+
+  // the rest of the source parsed in one piece, from the start of the
+  // chunk that failed, for the diagnostics a plain run reports. the
+  // statements before the first one with an error in it come along, to run
+  // before they're reported. where the error is depends only on the source,
+  // so whether a statement runs doesn't depend on the chunk size
+  private void fail(Lexer lexer, List<Diagnostic> lexErrors,
+                    List<Token> pending, int base)
+          throws InterruptedException {
+    List<Token> rest = new ArrayList<>(pending);
+    while (rest.get(rest.size() - 1).type != EOF) {
+      rest.addAll(lexer.lexNext(Integer.MAX_VALUE));
+    }
+    List<Diagnostic> errors = new ArrayList<>(lexErrors);
+    List<Stmt> clean = cleanPrefix(rest, errors);
+    if (!lexErrors.isEmpty()) {
+      // the lexer drops a bad character and carries on, so the statement
+      // around it may still parse. only those that end before it are clean
+      int before = tokensBeforeLexError() - base;
+      List<Token> tokens = new ArrayList<>(rest.subList(0, before));
+      tokens.add(new Token(EOF, "", null, rest.get(before).line));
+      List<Stmt> upTo = cleanPrefix(tokens, new ArrayList<>());
+      if (upTo.size() < clean.size()) clean = upTo;
+    }
+    queue.put(new Chunk(optimize(clean), errors));
+  }
+
+  // the top-level statements before the first with an error anywhere in
+  // it, a block can hold on to a statement that failed. all of `tokens` is
+  // parsed, so `errors` gets every diagnostic
+  private static List<Stmt> cleanPrefix(List<Token> tokens,
+                                        List<Diagnostic> errors) {
+    Parser parser = new Parser(tokens, errors);
+    List<Stmt> clean = new ArrayList<>();
+    boolean failed = false;
+    while (!parser.atEnd()) {
+      int before = errors.size();
+      Stmt statement = parser.nextDeclaration();
+      failed |= errors.size() > before;
+      if (!failed) clean.add(statement);
+    }
+    return clean;
+  }
+
+  // how many tokens the source has before its first bad character
+  private int tokensBeforeLexError() {
+    List<Diagnostic> errors = new ArrayList<>();
+    Lexer lexer = new Lexer(source, errors);
+    int tokens = 0;
+    for (; ; ) {
+      List<Token> next = lexer.lexNext(1);
+      if (!errors.isEmpty()) return tokens;
+      tokens += next.size();
+    }
+  }
+
+  // the same rewrites a plain run makes. LoopInvariants numbers the hoisted
+  // values from zero in every chunk, so the interpreter's table of them is
+  // as big as one chunk needs, not the whole program. reusing a number in a
+  // later chunk is safe, a value is only reused inside the loop execution
+  // it was computed in
+  private static List<Stmt> optimize(List<Stmt> statements) {
+    return LoopInvariants.apply(Superinstructions.apply(statements));
+  }
+}
@@ -0,0 +1,152 @@
+package craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.LockSupport;
+
+// `jlox --profile[=<file>] <script>`
+// a sampler thread reads the statement the interpreter publishes at a fixed
+// rate. the interpreter itself only stores a pointer per statement, all the
+// counting happens here. Lox has no functions, so the "stack" of a sample
+// is the chain of statements nesting the one that was running.
+class Profiler {
+  static final long DEFAULT_INTERVAL_NANOS = 1_000_000;   // 1000 Hz
+
+  private final Interpreter interpreter;
+  private final long intervalNanos;
+  // statement -> the block / if / while it sits in, for building stacks
+  private final Map<Stmt, Stmt> parents = new IdentityHashMap<>();
+  // only touched by the sampler thread until stop() joins it
+  private final Map<Stmt, Integer> samples = new IdentityHashMap<>();
+  private int total = 0;
+  private volatile boolean running = false;
+  private Thread sampler;
+
+  Profiler(Interpreter interpreter, List<Stmt> program, long intervalNanos) {
+    this.interpreter = interpreter;
+    this.intervalNanos = intervalNanos;
+    for (Stmt stmt : program) index(stmt, null);
+    interpreter.publishCurrentStatement();
+  }
+
+  private void index(Stmt stmt, Stmt parent) {
+    if (stmt == null) return;
+    parents.put(stmt, parent);
+    if (stmt instanceof Stmt.Block) {
+      for (Stmt inner : ((Stmt.Block) stmt).statements) index(inner, stmt);
+    } else if (stmt instanceof Stmt.If) {
+      index(((Stmt.If) stmt).thenBranch, stmt);
+      index(((Stmt.If) stmt).elseBranch, stmt);
+    } else if (stmt instanceof Stmt.While) {
+      index(((Stmt.While) stmt).body, stmt);
+    }
+  }
+
+  void start() {
+    running = true;
+    sampler = new Thread(() -> {
+      while (running) {
+        LockSupport.parkNanos(intervalNanos);
+        Stmt current = interpreter.currentStatement();
+        if (current == null) continue;
+        samples.merge(current, 1, Integer::sum);
+        total++;
+      }
+    }, "lox-profiler");
+    sampler.setDaemon(true);
+    sampler.start();
+  }
+
+  void stop() throws InterruptedException {
+    running = false;
+    sampler.join();
+  }
+
+  // per-line and per-statement hotspots. self counts samples taken while
+  // the statement itself was running, total also counts nested statements
+  void report(PrintStream out) {
+    Map<Integer, Integer> lines = new TreeMap<>();
+    Map<Stmt, Integer> inclusive = new IdentityHashMap<>();
+    for (Map.Entry<Stmt, Integer> sample : samples.entrySet()) {
+      lines.merge(sample.getKey().line, sample.getValue(), Integer::sum);
+      for (Stmt s = sample.getKey(); s != null; s = parents.get(s)) {
+        inclusive.merge(s, sample.getValue(), Integer::sum);
+      }
+    }
+
+    out.printf("profile: %d samples every %d us%n",
+            total, intervalNanos / 1000);
+    if (total == 0) return;
+
+    out.println("hot lines:");
+    out.println("   self%  samples  line");
+    List<Map.Entry<Integer, Integer>> byLine = new ArrayList<>(lines.entrySet());
+    byLine.sort((a, b) -> b.getValue() - a.getValue());
+    for (Map.Entry<Integer, Integer> line : top(byLine)) {
+      out.printf("  %5.1f%%  %7d  %d%n",
+              percent(line.getValue()), line.getValue(), line.getKey());
+    }
+
+    out.println("hot statements:");
+    out.println("   self%   total%  statement");
+    List<Stmt> byTotal = new ArrayList<>(inclusive.keySet());
+    byTotal.sort((a, b) -> inclusive.get(b) - inclusive.get(a));
+    for (Stmt stmt : top(byTotal)) {
+      out.printf("  %5.1f%%  %6.1f%%  %s%n",
+              percent(samples.getOrDefault(stmt, 0)),
+              percent(inclusive.get(stmt)), frame(stmt));
+    }
+  }
+
+  // one `outer;inner;innermost <count>` line per distinct stack, the format
+  // flamegraph.pl and speedscope read
+  void writeCollapsed(Path path) throws IOException {
+    Map<String, Integer> stacks = new HashMap<>();
+    for (Map.Entry<Stmt, Integer> sample : samples.entrySet()) {
+      stacks.merge(stack(sample.getKey()), sample.getValue(), Integer::sum);
+    }
+
+    try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, Integer> stack : stacks.entrySet()) {
+        writer.write(stack.getKey());
+        writer.write(' ');
+        writer.write(Integer.toString(stack.getValue()));
+        writer.write('\n');
+      }
+    }
+  }
+
+  private String stack(Stmt innermost) {
+    List<String> frames = new ArrayList<>();
+    for (Stmt s = innermost; s != null; s = parents.get(s)) {
+      frames.add(frame(s));
+    }
+    StringBuilder builder = new StringBuilder("script");
+    for (int i = frames.size() - 1; i >= 0; i--) {
+      builder.append(';').append(frames.get(i));
+    }
+    return builder.toString();
+  }
+
+  private static String frame(Stmt stmt) {
+    return stmt.getClass().getSimpleName().toLowerCase() + ":" + stmt.line;
+  }
+
+  private double percent(int count) {
+    return 100.0 * count / total;
+  }
+
+  private static <T> List<T> top(List<T> sorted) {
+    return sorted.subList(0, Math.min(20, sorted.size()));
+  }
+}
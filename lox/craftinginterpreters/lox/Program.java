@@ -0,0 +1,24 @@
+package craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.List;
+
+// a script lexed and parsed once. the AST is never modified after parsing,
+// so one Program can be executed by any number of interpreters at once.
+class Program {
+  final List<Stmt> statements;
+
+  private Program(List<Stmt> statements) {
+    this.statements = Collections.unmodifiableList(statements);
+  }
+
+  // null if the source has errors, which are added to `diagnostics`
+  static Program compile(String source, List<Diagnostic> diagnostics) {
+    int before = diagnostics.size();
+    List<Token> tokens = new Lexer(source, diagnostics).lexTokens();
+    List<Stmt> statements = new Parser(tokens, diagnostics).parse();
+    if (diagnostics.size() > before) return null;
+    return new Program(
+            LoopInvariants.apply(Superinstructions.apply(statements)));
+  }
+}
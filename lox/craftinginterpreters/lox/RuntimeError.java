@@ -2,9 +2,19 @@ package craftinginterpreters.lox;
 
 class RuntimeError extends Throwable{
   final Token token;
+  final int line;
 
   RuntimeError(Token token, String message) {
-    super(message);
+    // no stack trace, the Lox line number is all we ever report
+    super(message, null, false, false);
     this.token = token;
+    this.line = token.line;
+  }
+
+  // for errors that belong to a statement rather than a single token
+  RuntimeError(int line, String message) {
+    super(message, null, false, false);
+    this.token = null;
+    this.line = line;
   }
 }
@@ -0,0 +1,110 @@
+package craftinginterpreters.lox;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+// globals shared by interpreters on many threads, say configuration every
+// worker reads, see Interpreter(PrintStream, Budget, SharedEnvironment).
+// each interpreter's own globals chain onto it through `enclosing`.
+//
+// backed by a ConcurrentHashMap, so a read takes no lock and a write locks
+// only the one bin it lands in. every operation is atomic on its own and
+// sees every one that finished before it started:
+//   - define() sets the variable, creating it if need be. the last define
+//     of a name wins
+//   - assign() sets it only if it exists, else "Undefined variable", even
+//     when a define races with it
+//   - an Expr.Update, `x = x + 1` after Superinstructions, is atomic too,
+//     see replace(). any other read-modify-write, like `x = x * y`, is a
+//     read and then a write, and another thread's write in between is lost
+class SharedEnvironment extends Environment {
+  // ConcurrentHashMap has no room for null values
+  private static final Object NIL = new Object();
+
+  private final ConcurrentHashMap<Symbol, Object> values =
+          new ConcurrentHashMap<>();
+
+  SharedEnvironment() {
+    Natives.define(this);
+  }
+
+  // a value here outlives the script that made it, so a slice of that
+  // script's source is copied rather than keeping all of it
+  private static Object wrap(Object value) {
+    if (value instanceof SourceSlice) return value.toString();
+    return value == null ? NIL : value;
+  }
+
+  private static Object unwrap(Object value) {
+    return value == NIL ? null : value;
+  }
+
+  @Override
+  Object get(Token name) throws RuntimeError {
+    Object value = values.get(name.symbol);
+    if (value == null) {
+      throw new RuntimeError(name,
+              "Undefined variable '" + name.lexeme + "'.");
+    }
+    return unwrap(value);
+  }
+
+  @Override
+  Environment scopeOf(Token name) throws RuntimeError {
+    if (values.containsKey(name.symbol)) return this;
+
+    throw new RuntimeError(name,
+            "Undefined variable '" + name.lexeme + "'.");
+  }
+
+  @Override
+  boolean has(Symbol name) {
+    return values.containsKey(name);
+  }
+
+  @Override
+  Object getHere(Symbol name) {
+    return unwrap(values.get(name));
+  }
+
+  @Override
+  Object assign(Token name, Object value) throws RuntimeError {
+    // nothing is ever removed but by clear(), so this can't revive a name
+    Object old = values.replace(name.symbol, wrap(value));
+    if (old == null) {
+      throw new RuntimeError(name,
+              "Undefined variable '" + name.lexeme + "'.");
+    }
+    return unwrap(old);
+  }
+
+  @Override
+  void define(Symbol name, Object value) {
+    values.put(name, wrap(value));
+  }
+
+  // false if another thread changed it since `expected` was read. values
+  // are compared with equals(), and an equal value is as good as the same
+  @Override
+  boolean replace(Symbol name, Object expected, Object value) {
+    return values.replace(name, wrap(expected), wrap(value));
+  }
+
+  // only while no interpreter is using it
+  @Override
+  void clear() {
+    values.clear();
+  }
+
+  // weakly consistent: every variable defined before the call, values as
+  // they are when it gets to them
+  @Override
+  void forEach(BiConsumer<Symbol, Object> action) {
+    values.forEach((name, value) -> action.accept(name, unwrap(value)));
+  }
+
+  @Override
+  int size() {
+    return values.size();
+  }
+}
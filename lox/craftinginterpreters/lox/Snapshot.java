@@ -0,0 +1,261 @@
+package craftinginterpreters.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// the global variables in a file, for `jlox --snapshot=<file>`, the REPL's
+// `:snapshot <file>` and `jlox --restore=<file>`. restoring maps the file
+// and defines every global straight from it, so a warm image of a long
+// prelude loads in the time it takes to read it.
+//
+// big-endian:
+//   int MAGIC, int VERSION
+//   int count, then each string once: int length, UTF-8 bytes
+//   int count, then each builder: int string
+//   int count, then each array: int length, the doubles
+//   int count, then each global: int name string, byte tag, payload
+//
+// payloads by tag: NUMBER the double, STRING a string, NATIVE the string
+// of its name, BUILDER a builder, ARRAY an array, the rest nothing. equal
+// strings are stored once, and a builder or array held by two globals is
+// still one after a restore. natives still bound to their own names aren't stored,
+// every interpreter starts out with those.
+class Snapshot {
+  static final int MAGIC = 0x4c4f5847;    // "LOXG"
+  static final int VERSION = 2;
+
+  private static final byte NIL = 0;
+  private static final byte FALSE = 1;
+  private static final byte TRUE = 2;
+  private static final byte NUMBER = 3;
+  private static final byte STRING = 4;
+  private static final byte NATIVE = 5;
+  private static final byte BUILDER = 6;
+  private static final byte ARRAY = 7;
+
+  private final Map<String, Integer> strings = new HashMap<>();
+  private final List<String> stringOrder = new ArrayList<>();
+  private final Map<Natives.Builder, Integer> builders =
+          new IdentityHashMap<>();
+  private final List<Natives.Builder> builderOrder = new ArrayList<>();
+  private final Map<Natives.Array, Integer> arrays = new IdentityHashMap<>();
+  private final List<Natives.Array> arrayOrder = new ArrayList<>();
+
+  private Snapshot() {
+  }
+
+  // written next to `path` and moved over it, so a crash never leaves
+  // half a snapshot behind
+  static void write(Environment globals, Path path) throws IOException {
+    Snapshot snapshot = new Snapshot();
+    List<Symbol> names = new ArrayList<>();
+    List<Object> values = new ArrayList<>();
+    globals.forEach((name, value) -> {
+      if (value instanceof NativeFunction
+              && ((NativeFunction) value).name == name) {
+        return;
+      }
+      names.add(name);
+      // the snapshot outlives the source a literal's slice points into
+      values.add(value instanceof SourceSlice ? value.toString() : value);
+    });
+    int[] nameIndexes = new int[names.size()];
+    for (int i = 0; i < names.size(); i++) {
+      nameIndexes[i] = snapshot.string(names.get(i).name);
+      snapshot.intern(values.get(i));
+    }
+
+    Path absolute = path.toAbsolutePath();
+    Path temp = Files.createTempFile(absolute.getParent(),
+            absolute.getFileName().toString(), ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(temp), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(snapshot.stringOrder.size());
+      for (String string : snapshot.stringOrder) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+      out.writeInt(snapshot.builderOrder.size());
+      for (Natives.Builder builder : snapshot.builderOrder) {
+        out.writeInt(snapshot.strings.get(builder.text.toString()));
+      }
+      out.writeInt(snapshot.arrayOrder.size());
+      for (Natives.Array array : snapshot.arrayOrder) {
+        out.writeInt(array.values.length);
+        for (double value : array.values) out.writeDouble(value);
+      }
+      out.writeInt(names.size());
+      for (int i = 0; i < names.size(); i++) {
+        out.writeInt(nameIndexes[i]);
+        snapshot.writeValue(out, values.get(i));
+      }
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private int string(String string) {
+    Integer index = strings.get(string);
+    if (index == null) {
+      index = stringOrder.size();
+      strings.put(string, index);
+      stringOrder.add(string);
+    }
+    return index;
+  }
+
+  // puts the strings a value needs in the table
+  private void intern(Object value) {
+    if (value instanceof String) {
+      string((String) value);
+    } else if (value instanceof NativeFunction) {
+      string(((NativeFunction) value).name.name);
+    } else if (value instanceof Natives.Builder) {
+      Natives.Builder builder = (Natives.Builder) value;
+      if (!builders.containsKey(builder)) {
+        builders.put(builder, builderOrder.size());
+        builderOrder.add(builder);
+        string(builder.text.toString());
+      }
+    } else if (value instanceof Natives.Array) {
+      Natives.Array array = (Natives.Array) value;
+      if (!arrays.containsKey(array)) {
+        arrays.put(array, arrayOrder.size());
+        arrayOrder.add(array);
+      }
+    }
+  }
+
+  private void writeValue(DataOutputStream out, Object value)
+          throws IOException {
+    if (value == null) {
+      out.writeByte(NIL);
+    } else if (value instanceof Boolean) {
+      out.writeByte((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof Double) {
+      out.writeByte(NUMBER);
+      out.writeDouble((Double) value);
+    } else if (value instanceof String) {
+      out.writeByte(STRING);
+      out.writeInt(strings.get(value));
+    } else if (value instanceof NativeFunction) {
+      out.writeByte(NATIVE);
+      out.writeInt(strings.get(((NativeFunction) value).name.name));
+    } else if (value instanceof Natives.Builder) {
+      out.writeByte(BUILDER);
+      out.writeInt(builders.get(value));
+    } else if (value instanceof Natives.Array) {
+      out.writeByte(ARRAY);
+      out.writeInt(arrays.get(value));
+    } else {
+      throw new IOException("Can't snapshot a " +
+              value.getClass().getSimpleName() + ".");
+    }
+  }
+
+  // defines every global in the snapshot, on top of what's already there.
+  // returns how many
+  static int restore(Path path, Environment globals) throws IOException {
+    FileChannel opened;
+    try {
+      opened = FileChannel.open(path, StandardOpenOption.READ);
+    } catch (IOException e) {
+      // NoSuchFileException's message is just the path
+      throw new IOException("Can't read jlox snapshot: " + path, e);
+    }
+    try (FileChannel channel = opened) {
+      MappedByteBuffer in =
+              channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      try {
+        if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+          throw new IOException("Not a jlox snapshot: " + path);
+        }
+        String[] strings = new String[count(in, 4, path)];
+        for (int i = 0; i < strings.length; i++) {
+          byte[] bytes = new byte[count(in, 1, path)];
+          in.get(bytes);
+          strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        Natives.Builder[] builders =
+                new Natives.Builder[count(in, 4, path)];
+        for (int i = 0; i < builders.length; i++) {
+          builders[i] = new Natives.Builder();
+          builders[i].text.append(strings[in.getInt()]);
+        }
+        Natives.Array[] arrays = new Natives.Array[count(in, 4, path)];
+        for (int i = 0; i < arrays.length; i++) {
+          arrays[i] = new Natives.Array(count(in, 8, path));
+          in.asDoubleBuffer().get(arrays[i].values);
+          in.position(in.position() + 8 * arrays[i].values.length);
+        }
+
+        Map<String, NativeFunction> natives = new HashMap<>();
+        for (NativeFunction function : Natives.ALL) {
+          natives.put(function.name.name, function);
+        }
+        // decoded in full first, a corrupt file defines nothing
+        Symbol[] names = new Symbol[count(in, 5, path)];
+        Object[] values = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+          names[i] = Symbol.intern(strings[in.getInt()]);
+          byte tag = in.get();
+          switch (tag) {
+            case NIL: values[i] = null; break;
+            case FALSE: values[i] = false; break;
+            case TRUE: values[i] = true; break;
+            case NUMBER: values[i] = in.getDouble(); break;
+            case STRING: values[i] = strings[in.getInt()]; break;
+            case BUILDER: values[i] = builders[in.getInt()]; break;
+            case ARRAY: values[i] = arrays[in.getInt()]; break;
+            case NATIVE:
+              values[i] = natives.get(strings[in.getInt()]);
+              if (values[i] == null) {
+                throw new IOException("Unknown native in snapshot: " + path);
+              }
+              break;
+            default:
+              throw new IOException("Corrupt jlox snapshot: " + path);
+          }
+        }
+        for (int i = 0; i < names.length; i++) {
+          globals.define(names[i], values[i]);
+        }
+        return names.length;
+      } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+        throw new IOException("Corrupt jlox snapshot: " + path);
+      }
+    }
+  }
+
+  // a count or length read from the file, of things taking at least
+  // `bytes` each, checked against what's left so a corrupt one can't ask
+  // for a huge array
+  private static int count(MappedByteBuffer in, int bytes, Path path)
+          throws IOException {
+    int count = in.getInt();
+    if (count < 0 || count > in.remaining() / bytes) {
+      throw new IOException("Corrupt jlox snapshot: " + path);
+    }
+    return count;
+  }
+}
@@ -0,0 +1,151 @@
+package craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+// characters [start, end) of a source, without a copy of them. the Lexer
+// makes one for every lexeme and string literal, so a script with a
+// multi-megabyte string in it is held once, not once for the source, once
+// for the lexeme and once for the value.
+//
+// a Lox string at runtime is any CharSequence, a String or one of these.
+// toString() copies, so it's only for a value that has to outlive the
+// source, like one stored in a SharedEnvironment or a snapshot. concatenation,
+// equality, printing and the string natives all read the slice in place.
+final class SourceSlice implements CharSequence {
+  private static final int PRINT_CHUNK = 1 << 13;
+  private static final int COMPARE_CHUNK = 1 << 13;
+  private static final int SHORT = 64;
+
+  final String source;
+  final int start;
+  final int end;
+  private int hash;       // String's hash of the text, 0 until computed
+
+  SourceSlice(String source, int start, int end) {
+    this.source = source;
+    this.start = start;
+    this.end = end;
+  }
+
+  @Override
+  public int length() {
+    return end - start;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= end - start) {
+      throw new IndexOutOfBoundsException(index);
+    }
+    return source.charAt(start + index);
+  }
+
+  @Override
+  public CharSequence subSequence(int from, int to) {
+    if (from < 0 || to > end - start || from > to) {
+      throw new IndexOutOfBoundsException();
+    }
+    return new SourceSlice(source, start + from, start + to);
+  }
+
+  @Override
+  public String toString() {
+    return source.substring(start, end);
+  }
+
+  // equal to another slice with the same text. not to a String with it,
+  // equals() can't be made symmetric with String's, see sameText()
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof SourceSlice && sameText(this, (SourceSlice) other);
+  }
+
+  // the same as the text's String would have, so a slice and a String
+  // land in the same bucket
+  @Override
+  public int hashCode() {
+    int h = hash;
+    if (h == 0) {
+      for (int i = start; i < end; i++) h = 31 * h + source.charAt(i);
+      hash = h;
+    }
+    return h;
+  }
+
+  static boolean sameText(CharSequence a, CharSequence b) {
+    if (a == b) return true;
+    int length = a.length();
+    if (length != b.length()) return false;
+    if (a instanceof String && b instanceof String) return a.equals(b);
+    if (a instanceof SourceSlice && b instanceof SourceSlice
+            && ((SourceSlice) a).source == ((SourceSlice) b).source
+            && ((SourceSlice) a).start == ((SourceSlice) b).start) {
+      return true;
+    }
+    // regionMatches() goes a char at a time, a long text is compared a
+    // chunk at a time with Arrays.equals() instead
+    if (length <= SHORT) {
+      return text(a).regionMatches(offset(a), text(b), offset(b), length);
+    }
+    char[] left = new char[Math.min(length, COMPARE_CHUNK)];
+    char[] right = new char[left.length];
+    for (int from = 0; from < length; from += COMPARE_CHUNK) {
+      int count = Math.min(COMPARE_CHUNK, length - from);
+      text(a).getChars(offset(a) + from, offset(a) + from + count, left, 0);
+      text(b).getChars(offset(b) + from, offset(b) + from + count, right, 0);
+      if (!Arrays.equals(left, 0, count, right, 0, count)) return false;
+    }
+    return true;
+  }
+
+  // the String a Lox string's text is in, and where in it
+  private static String text(CharSequence string) {
+    return string instanceof SourceSlice
+            ? ((SourceSlice) string).source : (String) string;
+  }
+
+  private static int offset(CharSequence string) {
+    return string instanceof SourceSlice ? ((SourceSlice) string).start : 0;
+  }
+
+  // a + b as a new String
+  static String concat(CharSequence a, CharSequence b) {
+    if (a instanceof String && b instanceof String) {
+      return (String) a + (String) b;
+    }
+    if (b.length() == 0) return a.toString();
+    if (a.length() == 0) return b.toString();
+    StringBuilder builder = new StringBuilder(a.length() + b.length());
+    append(builder, a);
+    append(builder, b);
+    return builder.toString();
+  }
+
+  // StringBuilder.append(CharSequence) would go a char at a time
+  static void append(StringBuilder builder, CharSequence text) {
+    if (text instanceof SourceSlice) {
+      SourceSlice slice = (SourceSlice) text;
+      builder.append(slice.source, slice.start, slice.end);
+    } else {
+      builder.append(text);
+    }
+  }
+
+  static int indexOf(CharSequence text, CharSequence part) {
+    String needle = part.toString();
+    if (text instanceof String) return ((String) text).indexOf(needle);
+    SourceSlice slice = (SourceSlice) text;
+    for (int i = slice.start; i + needle.length() <= slice.end; i++) {
+      if (slice.source.startsWith(needle, i)) return i - slice.start;
+    }
+    return -1;
+  }
+
+  // a piece at a time, so printing a huge slice never copies all of it
+  void print(PrintStream out) {
+    for (int from = start; from < end; from += PRINT_CHUNK) {
+      out.append(source, from, Math.min(from + PRINT_CHUNK, end));
+    }
+  }
+}
@@ -104,4 +104,10 @@ abstract class Stmt {
   }
 
   abstract <R> R accept(Visitor<R> visitor) throws RuntimeError;
+
+  // first line of the statement, stamped by the parser
+  int line;
+  // coverage bit, unique within one parse. `if` and `while` also own the
+  // next two slots, for their condition being true and false
+  int slot;
 }
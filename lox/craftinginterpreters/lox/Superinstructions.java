@@ -0,0 +1,133 @@
+package craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.Objects;
+
+// replaces the shapes that dominate loops with fused nodes that run in one
+// dispatch and, for updates, one walk up the environment chain:
+//
+//   x = x + 1       x = x * c       s = s + "lit"     ->  Expr.Update
+//   i < n           i <= 10                           ->  Expr.Compare
+//   a[i] = a[i] + x;                                  ->  Expr.IndexUpdate
+//
+// the fused nodes call the same operator code as Expr.Binary, so results
+// and runtime errors (message, token, line) are exactly what they were.
+// an IndexUpdate is only made for a statement of its own, where nothing
+// reads its value: it is nil, so the element stays a double all the way
+// from the array and back instead of being boxed twice.
+class Superinstructions extends AstRewriter {
+  static List<Stmt> apply(List<Stmt> statements) {
+    return new Superinstructions().rewrite(statements);
+  }
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    Expr value = rewrite(expr.value);
+    if (value instanceof Expr.Binary) {
+      Expr.Binary binary = (Expr.Binary) value;
+      if (isArithmetic(binary.operator.type)
+              && isVariable(binary.left, expr.name)
+              && binary.right instanceof Expr.Literal) {
+        return new Expr.Update(expr.name,
+                ((Expr.Variable) binary.left).name, binary.operator,
+                ((Expr.Literal) binary.right).value);
+      }
+    }
+    return new Expr.Assign(expr.name, value);
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    Expr expression = rewrite(stmt.expression);
+    if (expression instanceof Expr.IndexSet) {
+      Expr.IndexSet set = (Expr.IndexSet) expression;
+      if (set.value instanceof Expr.Binary) {
+        Expr.Binary binary = (Expr.Binary) set.value;
+        if (isArithmetic(binary.operator.type)
+                && binary.left instanceof Expr.Index
+                && isSame(((Expr.Index) binary.left).object, set.object)
+                && isSame(((Expr.Index) binary.left).index, set.index)) {
+          // the read's bracket, it's where the unfused errors came from
+          return new Stmt.Expression(new Expr.IndexUpdate(set.object,
+                  ((Expr.Index) binary.left).bracket, set.index,
+                  binary.operator, binary.right));
+        }
+      }
+    }
+    return new Stmt.Expression(expression);
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    if (isComparison(expr.operator.type)
+            && expr.left instanceof Expr.Variable) {
+      Token left = ((Expr.Variable) expr.left).name;
+      if (expr.right instanceof Expr.Variable) {
+        return new Expr.Compare(left, expr.operator,
+                ((Expr.Variable) expr.right).name, null);
+      }
+      if (expr.right instanceof Expr.Literal) {
+        return new Expr.Compare(left, expr.operator, null,
+                ((Expr.Literal) expr.right).value);
+      }
+    }
+    return super.visitBinaryExpr(expr);
+  }
+
+  // whether two expressions always give the same value, so evaluating
+  // one of them once is the same as evaluating both: they read the same
+  // variables through the same operators, and can't change anything
+  private static boolean isSame(Expr a, Expr b) {
+    if (a instanceof Expr.Grouping) a = ((Expr.Grouping) a).expression;
+    if (b instanceof Expr.Grouping) b = ((Expr.Grouping) b).expression;
+    if (a instanceof Expr.Variable && b instanceof Expr.Variable) {
+      return ((Expr.Variable) a).name.symbol
+              == ((Expr.Variable) b).name.symbol;
+    }
+    if (a instanceof Expr.Literal && b instanceof Expr.Literal) {
+      return Objects.equals(((Expr.Literal) a).value,
+              ((Expr.Literal) b).value);
+    }
+    if (a instanceof Expr.Unary && b instanceof Expr.Unary) {
+      return ((Expr.Unary) a).operator.type == ((Expr.Unary) b).operator.type
+              && isSame(((Expr.Unary) a).right, ((Expr.Unary) b).right);
+    }
+    if (a instanceof Expr.Binary && b instanceof Expr.Binary) {
+      Expr.Binary left = (Expr.Binary) a;
+      Expr.Binary right = (Expr.Binary) b;
+      return left.operator.type == right.operator.type
+              && isSame(left.left, right.left)
+              && isSame(left.right, right.right);
+    }
+    return false;
+  }
+
+  private static boolean isVariable(Expr expr, Token name) {
+    return expr instanceof Expr.Variable
+            && ((Expr.Variable) expr).name.symbol == name.symbol;
+  }
+
+  private static boolean isArithmetic(TokenType type) {
+    switch (type) {
+      case PLUS:
+      case MINUS:
+      case STAR:
+      case SLASH:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean isComparison(TokenType type) {
+    switch (type) {
+      case LESS:
+      case LESS_EQUAL:
+      case GREATER:
+      case GREATER_EQUAL:
+        return true;
+      default:
+        return false;
+    }
+  }
+}
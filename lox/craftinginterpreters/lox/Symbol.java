@@ -0,0 +1,82 @@
+package craftinginterpreters.lox;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// an interned identifier. there is exactly one Symbol per name, so
+// environments can compare keys by identity, and the hash is computed once
+// here instead of on every lookup.
+final class Symbol {
+  // shared by every lexer so names line up across REPL lines, server
+  // requests and pooled runs. weak, so a name only stays while a token,
+  // scope or native still holds its Symbol: a long-running --server
+  // doesn't keep every identifier any script ever sent. a name that comes
+  // back after that gets a fresh Symbol, nothing can tell the difference
+  private static final ConcurrentHashMap<String, Entry> table =
+          new ConcurrentHashMap<>();
+  private static final ReferenceQueue<Symbol> collected =
+          new ReferenceQueue<>();
+  private static final AtomicInteger nextId = new AtomicInteger();
+
+  private static final class Entry extends WeakReference<Symbol> {
+    final String name;
+
+    Entry(Symbol symbol) {
+      super(symbol, collected);
+      this.name = symbol.name;
+    }
+  }
+
+  final String name;
+  final int id;         // small dense number, for compact binary records
+  private final int hash;
+
+  private Symbol(String name) {
+    this.name = name;
+    this.id = nextId.getAndIncrement();
+    int h = name.hashCode();
+    this.hash = h ^ (h >>> 16);
+  }
+
+  static Symbol intern(String name) {
+    Entry entry = table.get(name);
+    Symbol symbol = entry != null ? entry.get() : null;
+    if (symbol != null) return symbol;
+
+    expunge();
+    // held here until returned, so the new entry can't be cleared first
+    Symbol[] interned = new Symbol[1];
+    table.compute(name, (key, old) -> {
+      Symbol live = old != null ? old.get() : null;
+      if (live != null) {
+        interned[0] = live;
+        return old;
+      }
+      interned[0] = new Symbol(key);
+      return new Entry(interned[0]);
+    });
+    return interned[0];
+  }
+
+  // drop entries whose Symbol is gone. only the entry itself, the name
+  // may have been interned again since
+  private static void expunge() {
+    for (Object cleared; (cleared = collected.poll()) != null; ) {
+      table.remove(((Entry) cleared).name, cleared);
+    }
+  }
+
+  // equals() stays identity, which is the whole point
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
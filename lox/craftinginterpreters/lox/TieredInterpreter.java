@@ -0,0 +1,97 @@
+package craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+// tiered execution, `jlox --tier-up[=<tests>]`. everything starts in the
+// tree-walker. each `while` counts how often its condition is tested; when
+// that reaches the threshold the loop is lowered to an Ir, optimized, and
+// handed to IrInterpreter right there, mid-loop: the variables the loop
+// uses from the Environment it's running in are moved into registers, the
+// graph starts at the condition, and when it's done, or fails, they're
+// moved back and the tree-walker carries on after the loop. later runs of
+// the same loop go straight to the graph.
+//
+// a compiled outer loop contains its inner loops, so they move up with it.
+// a loop that reads a variable that doesn't exist yet stays in the
+// tree-walker, where that's the error it's always been. it isn't offered
+// to the graph again until it runs in another scope, a refused transfer
+// costs a walk up the scopes for every variable the loop uses.
+class TieredInterpreter extends Interpreter {
+  static final int DEFAULT_THRESHOLD = 1000;
+
+  private final int threshold;
+  private final IrInterpreter tier;
+  // weak, so a statement Pipeline is done with goes, compiled code and
+  // all. Stmt keeps Object's identity equals(), and Code doesn't point
+  // back at the statement
+  private final Map<Stmt, Loop> loops = new WeakHashMap<>();
+  // the loop tested last, nearly always the one tested next
+  private Stmt lastStmt;
+  private Loop lastLoop;
+
+  int compiled = 0;           // loops lowered to the graph
+  long transfers = 0;         // times the graph took over a running loop
+  long iterations = 0;        // condition tests left to the tree-walker
+  long declined = 0;          // transfers refused for an undefined variable
+
+  private static class Loop {
+    int tests = 0;
+    IrInterpreter.Code code;
+    Environment declinedIn;   // where the last transfer was refused
+  }
+
+  TieredInterpreter(PrintStream out, int threshold) {
+    super(out);
+    this.threshold = threshold;
+    this.tier = new IrInterpreter(this, out);
+  }
+
+  @Override
+  boolean test(Stmt stmt, Expr condition) throws RuntimeError {
+    if (!(stmt instanceof Stmt.While)) return super.test(stmt, condition);
+
+    Loop loop = lastLoop;
+    if (stmt != lastStmt) {
+      loop = loops.computeIfAbsent(stmt, key -> new Loop());
+      lastStmt = stmt;
+      lastLoop = loop;
+    }
+    if (loop.code == null) {
+      if (++loop.tests <= threshold) {
+        iterations++;
+        return super.test(stmt, condition);
+      }
+      Ir graph = IrBuilder.lowerLoop((Stmt.While) stmt);
+      IrOptimizer.optimize(graph);
+      loop.code = new IrInterpreter.Code(graph);
+      compiled++;
+    }
+
+    Environment scope = environment();
+    if (loop.declinedIn == scope) {
+      iterations++;
+      return super.test(stmt, condition);
+    }
+
+    // on-stack replacement: the rest of this run of the loop, condition
+    // first, then tell the tree-walker the loop is over
+    transfers++;      // before, so a loop that fails in the graph counts
+    if (tier.run(loop.code, scope)) {
+      loop.declinedIn = null;
+      return false;
+    }
+    transfers--;
+    declined++;
+    loop.declinedIn = scope;
+    iterations++;
+    return super.test(stmt, condition);
+  }
+
+  void report(PrintStream out) {
+    out.printf("tier-up: %d loops compiled, %d transfers to compiled " +
+            "loops, %d declined, %d iterations interpreted%n", compiled,
+            transfers, declined, iterations);
+  }
+}
@@ -3,16 +3,26 @@ package craftinginterpreters.lox;
 class Token {
   // package-private member variables (default access level is package-private)
   final TokenType type; // `final` is similar to `const` in c++
-  final String lexeme;
+  // a SourceSlice of the source, unless the Lexer was copying
+  final CharSequence lexeme;
   final Object literal;
-  final int line;
+  // not final: IncrementalParser shifts it when an edit above the token
+  // adds or removes lines
+  int line;
+  final Symbol symbol;  // interned name of an IDENTIFIER, null otherwise
 
   // constructor
-  Token(TokenType type, String lexeme, Object literal, int line) {
+  Token(TokenType type, CharSequence lexeme, Object literal, int line) {
+    this(type, lexeme, literal, line, null);
+  }
+
+  Token(TokenType type, CharSequence lexeme, Object literal, int line,
+        Symbol symbol) {
     this.type = type;
     this.lexeme = lexeme;
     this.literal = literal;
     this.line = line;
+    this.symbol = symbol;
   }
 
   public String toString() {
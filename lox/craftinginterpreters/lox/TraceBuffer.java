@@ -0,0 +1,123 @@
+package craftinginterpreters.lox;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+// fixed-size ring of binary trace records, kept off-heap so a long trace
+// costs the GC nothing. recording is a handful of absolute puts, no
+// allocation, no locking: one buffer belongs to one interpreter.
+//
+// record layout, RECORD_BYTES each, big-endian:
+//   byte  kind      STATEMENT, ASSIGN or BRANCH
+//   byte  tag       ASSIGN: type of the value, BRANCH: 1 if taken
+//   short (unused)
+//   int   line
+//   int   arg       STATEMENT: statement type, ASSIGN: Symbol.id,
+//                   BRANCH: BRANCH_IF or BRANCH_WHILE
+//   int   (unused)
+//   long  payload   ASSIGN: the number's bits, the boolean, or a string's
+//                   length
+//
+// dump file: MAGIC, VERSION, RECORD_BYTES, records kept (int), records
+// ever written (long), the kept records oldest first, then the symbol
+// table as a count followed by (int id, UTF name) pairs. the table has
+// the symbols the kept ASSIGN records name: Symbols are only interned
+// while something holds them, so the ring holds those itself.
+// craftinginterpreters.tool.DecodeTrace turns it back into text.
+class TraceBuffer {
+  static final int MAGIC = 0x4c4f5854;    // "LOXT"
+  static final int VERSION = 1;
+  static final int RECORD_BYTES = 24;
+
+  static final byte STATEMENT = 1;
+  static final byte ASSIGN = 2;
+  static final byte BRANCH = 3;
+
+  // ASSIGN tags
+  static final byte NIL = 0;
+  static final byte NUMBER = 1;
+  static final byte BOOLEAN = 2;
+  static final byte STRING = 3;
+
+  static final int BRANCH_IF = 0;
+  static final int BRANCH_WHILE = 1;
+
+  static final int DEFAULT_RECORDS = 1 << 18;
+
+  private final ByteBuffer ring;
+  private final long mask;
+  private long written = 0;
+  // per slot, the Symbol an ASSIGN record there names
+  private final Symbol[] names;
+
+  // `records` is rounded up to a power of two
+  TraceBuffer(int records) {
+    int capacity = Integer.highestOneBit(Math.max(records - 1, 1)) << 1;
+    this.ring = ByteBuffer.allocateDirect(capacity * RECORD_BYTES);
+    this.mask = capacity - 1;
+    this.names = new Symbol[capacity];
+  }
+
+  void assign(byte tag, int line, Symbol name, long payload) {
+    names[(int) (written & mask)] = name;
+    put(ASSIGN, tag, line, name.id, payload);
+  }
+
+  void record(byte kind, byte tag, int line, int arg, long payload) {
+    names[(int) (written & mask)] = null;
+    put(kind, tag, line, arg, payload);
+  }
+
+  private void put(byte kind, byte tag, int line, int arg, long payload) {
+    int at = (int) (written++ & mask) * RECORD_BYTES;
+    ring.put(at, kind);
+    ring.put(at + 1, tag);
+    ring.putInt(at + 4, line);
+    ring.putInt(at + 8, arg);
+    ring.putLong(at + 16, payload);
+  }
+
+  void dump(Path path) throws IOException {
+    long capacity = mask + 1;
+    int kept = (int) Math.min(written, capacity);
+
+    try (DataOutputStream out = new DataOutputStream(
+            Files.newOutputStream(path))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(RECORD_BYTES);
+      out.writeInt(kept);
+      out.writeLong(written);
+      out.flush();
+
+      // oldest record first: once wrapped, that's the one about to be
+      // overwritten next
+      WritableByteChannel channel = Channels.newChannel(out);
+      int oldest = written > capacity ? (int) (written & mask) : 0;
+      ByteBuffer view = ring.duplicate();
+      view.limit(kept * RECORD_BYTES).position(oldest * RECORD_BYTES);
+      while (view.hasRemaining()) channel.write(view);
+      view.limit(oldest * RECORD_BYTES).position(0);
+      while (view.hasRemaining()) channel.write(view);
+
+      Set<Symbol> symbols =
+              Collections.newSetFromMap(new IdentityHashMap<>());
+      for (Symbol name : names) {
+        if (name != null) symbols.add(name);
+      }
+      out.writeInt(symbols.size());
+      for (Symbol symbol : symbols) {
+        out.writeInt(symbol.id);
+        out.writeUTF(symbol.name);
+      }
+    }
+  }
+}
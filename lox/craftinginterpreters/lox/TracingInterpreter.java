@@ -0,0 +1,76 @@
+package craftinginterpreters.lox;
+
+import java.io.PrintStream;
+
+// the instrumented interpreter for `--trace=<file>`. it's only instantiated
+// when tracing was asked for, so a normal run never pays for the hooks.
+// records statement entry, assignments and branch decisions into a
+// TraceBuffer, never printing or allocating per event.
+class TracingInterpreter extends Interpreter {
+  final TraceBuffer trace;
+
+  TracingInterpreter(PrintStream out, Budget budget, TraceBuffer trace) {
+    super(out, budget);
+    this.trace = trace;
+  }
+
+  @Override
+  void execute(Stmt stmt) throws RuntimeError {
+    trace.record(TraceBuffer.STATEMENT, (byte) 0, stmt.line, typeOf(stmt), 0);
+    super.execute(stmt);
+  }
+
+  @Override
+  boolean test(Stmt stmt, Expr condition) throws RuntimeError {
+    boolean taken = super.test(stmt, condition);
+    int branch = stmt instanceof Stmt.While
+            ? TraceBuffer.BRANCH_WHILE : TraceBuffer.BRANCH_IF;
+    trace.record(TraceBuffer.BRANCH, (byte) (taken ? 1 : 0), stmt.line,
+            branch, 0);
+    return taken;
+  }
+
+  @Override
+  public Object visitAssignExpr(Expr.Assign expr) throws RuntimeError {
+    Object value = super.visitAssignExpr(expr);
+    recordAssign(expr.name, value);
+    return value;
+  }
+
+  @Override
+  public Object visitUpdateExpr(Expr.Update expr) throws RuntimeError {
+    Object value = super.visitUpdateExpr(expr);
+    recordAssign(expr.name, value);
+    return value;
+  }
+
+  private void recordAssign(Token name, Object value) {
+    byte tag;
+    long payload;
+    if (value instanceof Double) {
+      tag = TraceBuffer.NUMBER;
+      payload = Double.doubleToRawLongBits((double) value);
+    } else if (value instanceof Boolean) {
+      tag = TraceBuffer.BOOLEAN;
+      payload = (boolean) value ? 1 : 0;
+    } else if (value instanceof CharSequence) {
+      tag = TraceBuffer.STRING;
+      payload = ((CharSequence) value).length();
+    } else {
+      tag = TraceBuffer.NIL;
+      payload = 0;
+    }
+    trace.assign(tag, name.line, name.symbol, payload);
+  }
+
+  // the statement types, in the order DecodeTrace names them
+  private static int typeOf(Stmt stmt) {
+    if (stmt instanceof Stmt.Block) return 0;
+    if (stmt instanceof Stmt.Expression) return 1;
+    if (stmt instanceof Stmt.If) return 2;
+    if (stmt instanceof Stmt.Print) return 3;
+    if (stmt instanceof Stmt.Var) return 4;
+    if (stmt instanceof Stmt.While) return 5;
+    return -1;
+  }
+}
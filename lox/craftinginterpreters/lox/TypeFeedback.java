@@ -0,0 +1,260 @@
+package craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// per-node type profiles for `jlox --feedback=<file>`, see
+// FeedbackInterpreter. binary operator sites record which kinds of
+// operands they've seen, so a site that only ever saw numbers starts out
+// on the numeric path in the next run. `if` and `while` record how often
+// their condition held. that's kept across runs but nothing acts on it
+// yet: a tree-walker reaches either arm of a branch at the same cost, so
+// there's no layout or speculation for a biased branch to pay for. it's
+// there for a compiling tier to read.
+//
+// a node's id is `<line>#<n>`, the n-th site of its kind on its line in
+// tree order, so ids survive edits to other lines. on load an entry is
+// only taken if its id still names a site with the same operator; the
+// rest of the file is dropped. an entry that matches but is wrong costs a
+// failed guard and a widened profile, never a wrong result.
+//
+//   jlox-feedback 1
+//   binary <id> <operator> <kinds seen: NUMBERS | STRINGS | OTHER>
+//   branch <id> <times true> <times false>
+class TypeFeedback {
+  static final int NUMBERS = 1;
+  static final int STRINGS = 2;
+  static final int OTHER = 4;
+
+  // binary sites, indexed by Expr.site. site 0 is unused
+  private final List<String> siteIds = new ArrayList<>();
+  private final List<Token> operators = new ArrayList<>();
+  private int[] seen = new int[0];
+  // per site, the numeric operation it runs while it has only seen
+  // numbers, see FeedbackInterpreter, or 0 once it has seen anything else
+  private int[] fast = new int[0];
+  // branch sites, indexed by Stmt.slot
+  private final Map<Integer, String> branchIds = new HashMap<>();
+  private long[] taken = new long[0];
+  private long[] notTaken = new long[0];
+
+  // ordinals so far per line, while attaching
+  private final Map<Integer, Integer> sitesOnLine = new HashMap<>();
+  private final Map<Integer, Integer> branchesOnLine = new HashMap<>();
+
+  // stamp a freshly parsed program with sites, forgetting the previous one
+  void attach(List<Stmt> program) {
+    siteIds.clear();
+    operators.clear();
+    branchIds.clear();
+    sitesOnLine.clear();
+    branchesOnLine.clear();
+    siteIds.add(null);
+    operators.add(null);
+    int slots = 0;
+    for (Stmt stmt : program) slots = Math.max(slots, walk(stmt));
+    seen = new int[siteIds.size()];
+    fast = new int[siteIds.size()];
+    taken = new long[slots + 1];
+    notTaken = new long[slots + 1];
+  }
+
+  // returns the highest slot below `stmt`
+  private int walk(Stmt stmt) {
+    if (stmt == null) return 0;
+    int slots = stmt.slot;
+    if (stmt instanceof Stmt.Block) {
+      for (Stmt inner : ((Stmt.Block) stmt).statements) {
+        slots = Math.max(slots, walk(inner));
+      }
+    } else if (stmt instanceof Stmt.Expression) {
+      walk(((Stmt.Expression) stmt).expression);
+    } else if (stmt instanceof Stmt.If) {
+      Stmt.If ifStmt = (Stmt.If) stmt;
+      branch(stmt);
+      walk(ifStmt.condition);
+      slots = Math.max(slots, walk(ifStmt.thenBranch));
+      slots = Math.max(slots, walk(ifStmt.elseBranch));
+    } else if (stmt instanceof Stmt.Print) {
+      walk(((Stmt.Print) stmt).expression);
+    } else if (stmt instanceof Stmt.Var) {
+      walk(((Stmt.Var) stmt).initializer);
+    } else if (stmt instanceof Stmt.While) {
+      branch(stmt);
+      walk(((Stmt.While) stmt).condition);
+      slots = Math.max(slots, walk(((Stmt.While) stmt).body));
+    }
+    return slots;
+  }
+
+  private void walk(Expr expr) {
+    if (expr instanceof Expr.Assign) {
+      walk(((Expr.Assign) expr).value);
+    } else if (expr instanceof Expr.Binary) {
+      Expr.Binary binary = (Expr.Binary) expr;
+      site(expr, binary.operator);
+      walk(binary.left);
+      walk(binary.right);
+    } else if (expr instanceof Expr.Call) {
+      walk(((Expr.Call) expr).callee);
+      for (Expr argument : ((Expr.Call) expr).arguments) walk(argument);
+    } else if (expr instanceof Expr.Compare) {
+      site(expr, ((Expr.Compare) expr).operator);
+    } else if (expr instanceof Expr.Grouping) {
+      walk(((Expr.Grouping) expr).expression);
+    } else if (expr instanceof Expr.Hoisted) {
+      walk(((Expr.Hoisted) expr).expression);
+    } else if (expr instanceof Expr.Index) {
+      walk(((Expr.Index) expr).object);
+      walk(((Expr.Index) expr).index);
+    } else if (expr instanceof Expr.IndexSet) {
+      walk(((Expr.IndexSet) expr).object);
+      walk(((Expr.IndexSet) expr).index);
+      walk(((Expr.IndexSet) expr).value);
+    } else if (expr instanceof Expr.IndexUpdate) {
+      // runs on doubles without asking binary(), nothing to profile
+      walk(((Expr.IndexUpdate) expr).object);
+      walk(((Expr.IndexUpdate) expr).index);
+      walk(((Expr.IndexUpdate) expr).operand);
+    } else if (expr instanceof Expr.Logical) {
+      walk(((Expr.Logical) expr).left);
+      walk(((Expr.Logical) expr).right);
+    } else if (expr instanceof Expr.Unary) {
+      walk(((Expr.Unary) expr).right);
+    } else if (expr instanceof Expr.Update) {
+      site(expr, ((Expr.Update) expr).operator);
+    }
+  }
+
+  private void site(Expr expr, Token operator) {
+    // == and != take anything, there's nothing to specialize
+    if (operator.type == TokenType.EQUAL_EQUAL
+            || operator.type == TokenType.BANG_EQUAL) {
+      return;
+    }
+    expr.site = siteIds.size();
+    siteIds.add(id(sitesOnLine, operator.line));
+    operators.add(operator);
+  }
+
+  private void branch(Stmt stmt) {
+    branchIds.put(stmt.slot, id(branchesOnLine, stmt.line));
+  }
+
+  private static String id(Map<Integer, Integer> counts, int line) {
+    int n = counts.merge(line, 1, Integer::sum);
+    return line + "#" + n;
+  }
+
+  void operands(int site, Object left, Object right) {
+    int kinds;
+    if (left instanceof Double && right instanceof Double) {
+      kinds = NUMBERS;
+    } else if (left instanceof CharSequence
+            && right instanceof CharSequence) {
+      kinds = STRINGS;
+    } else {
+      kinds = OTHER;
+    }
+    saw(site, kinds);
+  }
+
+  private void saw(int site, int kinds) {
+    seen[site] |= kinds;
+    fast[site] = seen[site] == NUMBERS ? operation(operators.get(site)) : 0;
+  }
+
+  // the site's operation if it has only ever seen two numbers, else 0
+  int fast(int site) {
+    return fast[site];
+  }
+
+  void branch(int slot, boolean condition) {
+    if (condition) {
+      taken[slot]++;
+    } else {
+      notTaken[slot]++;
+    }
+  }
+
+  static final int GREATER = 1;
+  static final int GREATER_EQUAL = 2;
+  static final int LESS = 3;
+  static final int LESS_EQUAL = 4;
+  static final int MINUS = 5;
+  static final int PLUS = 6;
+  static final int SLASH = 7;
+  static final int STAR = 8;
+
+  private static int operation(Token operator) {
+    switch (operator.type) {
+      case GREATER: return GREATER;
+      case GREATER_EQUAL: return GREATER_EQUAL;
+      case LESS: return LESS;
+      case LESS_EQUAL: return LESS_EQUAL;
+      case MINUS: return MINUS;
+      case PLUS: return PLUS;
+      case SLASH: return SLASH;
+      default: return STAR;     // the only one left
+    }
+  }
+
+  // merge in a profile from earlier runs, if there is one
+  void load(Path path) throws IOException {
+    if (!Files.exists(path)) return;
+    Map<String, Integer> sites = new HashMap<>();
+    for (int site = 1; site < siteIds.size(); site++) {
+      sites.put(siteIds.get(site), site);
+    }
+    Map<String, Integer> branches = new HashMap<>();
+    for (Map.Entry<Integer, String> branch : branchIds.entrySet()) {
+      branches.put(branch.getValue(), branch.getKey());
+    }
+
+    List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+    if (lines.isEmpty() || !lines.get(0).equals("jlox-feedback 1")) return;
+    for (String line : lines) {
+      String[] fields = line.split(" ");
+      try {
+        if (fields[0].equals("binary") && fields.length == 4) {
+          Integer site = sites.get(fields[1]);
+          if (site == null) continue;
+          if (!fields[2].contentEquals(operators.get(site).lexeme)) continue;
+          int kinds = Integer.parseInt(fields[3]);
+          saw(site, kinds & (NUMBERS | STRINGS | OTHER));
+        } else if (fields[0].equals("branch") && fields.length == 4) {
+          Integer slot = branches.get(fields[1]);
+          if (slot == null) continue;
+          taken[slot] += Long.parseLong(fields[2]);
+          notTaken[slot] += Long.parseLong(fields[3]);
+        }
+      } catch (NumberFormatException e) {
+        // a damaged entry is just a missing one
+      }
+    }
+  }
+
+  void write(Path path) throws IOException {
+    StringBuilder out = new StringBuilder("jlox-feedback 1\n");
+    for (int site = 1; site < siteIds.size(); site++) {
+      if (seen[site] == 0) continue;
+      out.append("binary ").append(siteIds.get(site)).append(' ')
+              .append(operators.get(site).lexeme).append(' ')
+              .append(seen[site]).append('\n');
+    }
+    for (Map.Entry<Integer, String> branch : branchIds.entrySet()) {
+      int slot = branch.getKey();
+      if (taken[slot] + notTaken[slot] == 0) continue;
+      out.append("branch ").append(branch.getValue()).append(' ')
+              .append(taken[slot]).append(' ').append(notTaken[slot])
+              .append('\n');
+    }
+    Files.write(path, out.toString().getBytes(StandardCharsets.UTF_8));
+  }
+}
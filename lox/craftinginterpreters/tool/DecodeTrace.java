@@ -0,0 +1,99 @@
+package craftinginterpreters.tool;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+// turns a trace dumped by `jlox --trace=<file>` into one line of text per
+// record. the format is described in craftinginterpreters.lox.TraceBuffer
+public class DecodeTrace {
+  private static final int MAGIC = 0x4c4f5854;
+  private static final int VERSION = 1;
+
+  private static final String[] STATEMENTS = {
+          "block", "expression", "if", "print", "var", "while"
+  };
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("Usage: decode_trace <trace file>");
+      System.exit(64);
+    }
+
+    try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(args[0])))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        System.err.println("Not a jlox trace: " + args[0]);
+        System.exit(65);
+      }
+      int recordBytes = in.readInt();
+      int kept = in.readInt();
+      long written = in.readLong();
+
+      byte[] records = new byte[kept * recordBytes];
+      in.readFully(records);
+
+      Map<Integer, String> symbols = new HashMap<>();
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        int id = in.readInt();
+        symbols.put(id, in.readUTF());
+      }
+
+      System.out.println("# " + written + " events recorded, last " + kept +
+              " kept");
+      DataInputStream record =
+              new DataInputStream(new ByteArrayInputStream(records));
+      long first = written - kept;
+      for (int i = 0; i < kept; i++) {
+        byte kind = record.readByte();
+        byte tag = record.readByte();
+        record.readShort();
+        int line = record.readInt();
+        int arg = record.readInt();
+        record.readInt();
+        long payload = record.readLong();
+        record.skipBytes(recordBytes - 24);
+
+        System.out.printf("%10d  [line %d] %s%n", first + i, line,
+                describe(kind, tag, arg, payload, symbols));
+      }
+    }
+  }
+
+  private static String describe(byte kind, byte tag, int arg, long payload,
+                                 Map<Integer, String> symbols) {
+    switch (kind) {
+      case 1:
+        return "enter " + (arg >= 0 && arg < STATEMENTS.length
+                ? STATEMENTS[arg] : "statement " + arg);
+      case 2:
+        return "assign " + symbols.getOrDefault(arg, "#" + arg) + " = " +
+                value(tag, payload);
+      case 3:
+        String branch = arg == 1 ? "while" : "if";
+        return branch + (tag == 1 ? " taken" : " not taken");
+      default:
+        return "unknown record " + kind;
+    }
+  }
+
+  private static String value(byte tag, long payload) {
+    switch (tag) {
+      case 1:
+        String text = Double.toString(Double.longBitsToDouble(payload));
+        if (text.endsWith(".0")) text = text.substring(0, text.length() - 2);
+        return text;
+      case 2:
+        return payload != 0 ? "true" : "false";
+      case 3:
+        return "<string, " + payload + " chars>";
+      default:
+        return "nil";
+    }
+  }
+}
@@ -15,10 +15,26 @@ public class GenerateAst {
     defineAst(outputDir, "Expr", Arrays.asList(
             "Assign   : Token name, Expr value",
             "Binary   : Expr left, Token operator, Expr right",
+            "Call     : Expr callee, Token paren, List<Expr> arguments",
+            // fused nodes, only ever created by Superinstructions
+            "Compare  : Token left, Token operator, Token rightName," +
+                    " Object rightValue",
             "Grouping : Expr expression",
+            // only ever created by LoopInvariants
+            "Hoisted  : Expr expression, int index, int loop",
+            "Index    : Expr object, Token bracket, Expr index",
+            "IndexSet : Expr object, Token bracket, Expr index, Expr value",
+            // fused, only ever created by Superinstructions
+            "IndexUpdate : Expr object, Token bracket, Expr index," +
+                    " Token operator, Expr operand",
             "Literal  : Object value",
             "Logical  : Expr left, Token operator, Expr right",
             "Unary    : Token operator, Expr right",
+            // fused, `name = read op operand`, read being the right-hand
+            // variable's token, so a failed lookup is reported where the
+            // unfused code reported it
+            "Update   : Token name, Token read, Token operator," +
+                    " Object operand",
             "Variable : Token name"
     ));
     defineAst(outputDir, "Stmt", Arrays.asList(
@@ -57,6 +73,21 @@ public class GenerateAst {
     writer.println();
     writer.println("  abstract <R> R accept(Visitor<R> visitor);");
 
+    if (baseName.equals("Stmt")) {
+      writer.println();
+      writer.println("  // first line of the statement, stamped by the parser");
+      writer.println("  int line;");
+      writer.println("  // coverage bit, unique within one parse. `if` and `while` also own the");
+      writer.println("  // next two slots, for their condition being true and false");
+      writer.println("  int slot;");
+    }
+    if (baseName.equals("Expr")) {
+      writer.println();
+      writer.println("  // type feedback site of a binary operator, stamped by TypeFeedback.");
+      writer.println("  // 0 when nothing is profiling it");
+      writer.println("  int site;");
+    }
+
     writer.println("}");
     writer.close();
   }